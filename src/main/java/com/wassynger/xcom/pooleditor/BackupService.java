@@ -0,0 +1,132 @@
+package com.wassynger.xcom.pooleditor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backs up pool files in the background before they are overwritten. A number
+ * of generations are kept for each file in the backup directory, where
+ * generation 1 is the newest. Older generations are rotated by renaming them.
+ * The newest generation is always a full copy of the file, so it stays valid no
+ * matter how the file is written afterwards, whether it is replaced or
+ * rewritten in place. The copy is made before the generations are rotated, so
+ * a failed copy leaves the existing generations as they are. Backups are done
+ * one at a time, in the order they were requested.
+ *
+ * @author Zach Wassynger
+ */
+final class BackupService
+{
+   private static final Path BACKUP_DIR = Paths.get("backup");
+   private static final int DEFAULT_GENERATIONS = 5;
+
+   /**
+    * Creates the backup service from the current settings.
+    *
+    * @return the backup service
+    */
+   static BackupService create()
+   {
+      return new BackupService(BACKUP_DIR,
+            (int) Config.INSTANCE.getLong(Config.Setting.BACKUP_GENERATIONS, DEFAULT_GENERATIONS));
+   }
+
+   private final Path directory;
+   private final int generations;
+   private final ExecutorService executor;
+
+   BackupService(Path directory, int generations)
+   {
+      this.directory = Objects.requireNonNull(directory);
+      this.generations = Math.max(generations, 1);
+      this.executor = Executors.newSingleThreadExecutor(r ->
+      {
+         Thread thread = new Thread(r, "pool-backup");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   /**
+    * Starts backing up the given file. The file must not be replaced until the
+    * returned future completes. Failures are logged, and do not fail the
+    * future.
+    *
+    * @param file the file to back up, non-null
+    * @return the future that completes with whether the backup succeeded
+    */
+   Future<Boolean> backup(Path file)
+   {
+      return executor.submit(() ->
+      {
+         try
+         {
+            doBackup(file);
+            return true;
+         }
+         catch (Exception e)
+         {
+            System.err.printf("Failed to backup save file: %s%n", e);
+            return false;
+         }
+      });
+   }
+
+   private void doBackup(Path file) throws IOException
+   {
+      if (!Files.isRegularFile(file))
+      {
+         // Nothing to back up yet
+         return;
+      }
+      Files.createDirectories(directory);
+      String name = file.getFileName().toString();
+      Path newest = generation(name, 1);
+      Path copy = newest.resolveSibling(newest.getFileName() + ".tmp");
+      try
+      {
+         Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+         Files.deleteIfExists(generation(name, generations));
+         for (int i = generations - 1; i >= 1; i--)
+         {
+            Path older = generation(name, i);
+            if (Files.exists(older))
+            {
+               Files.move(older, generation(name, i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+         }
+         Files.move(copy, newest, StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally
+      {
+         Files.deleteIfExists(copy);
+      }
+   }
+
+   private Path generation(String name, int generation)
+   {
+      return directory.resolve(String.format("%s.%d", name, generation));
+   }
+
+   /**
+    * Finishes all pending backups, then stops the service.
+    *
+    * @throws InterruptedException if interrupted while waiting
+    */
+   void shutdown() throws InterruptedException
+   {
+      executor.shutdown();
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+      {
+         System.out.println("Backups failed to finish within a minute.");
+      }
+   }
+}
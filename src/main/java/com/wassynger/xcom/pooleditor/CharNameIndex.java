@@ -0,0 +1,97 @@
+package com.wassynger.xcom.pooleditor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.StringBinding;
+import javafx.beans.value.ObservableStringValue;
+import javafx.collections.ListChangeListener;
+
+import com.wassynger.xcom.pooleditor.data.CharacterField;
+import com.wassynger.xcom.pooleditor.data.EditableCharPool;
+import com.wassynger.xcom.pooleditor.data.EditableCharacter;
+
+/**
+ * Caches the names that are displayed for the characters of a pool. The name
+ * of a character is only computed once it is first displayed, and is then kept
+ * until its first name, last name, nickname or edited flag changes, so
+ * displaying a character that did not change only reads the cached name.
+ *
+ * @author Zach Wassynger
+ */
+final class CharNameIndex
+{
+   private final EditableCharPool pool;
+   private final ListChangeListener<EditableCharacter> listener;
+   private final Map<EditableCharacter, StringBinding> names;
+
+   CharNameIndex(EditableCharPool pool)
+   {
+      this.pool = pool;
+      this.listener = this::onCharactersChanged;
+      this.names = new IdentityHashMap<>();
+      pool.getCharacters().addListener(listener);
+   }
+
+   private void onCharactersChanged(ListChangeListener.Change<? extends EditableCharacter> change)
+   {
+      while (change.next())
+      {
+         for (EditableCharacter character : change.getRemoved())
+         {
+            StringBinding name = names.remove(character);
+            if (name != null)
+            {
+               name.dispose();
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the displayed name of the given character, which is kept up to
+    * date as the character is edited.
+    *
+    * @param character the given character, non-null
+    * @return the observable name
+    */
+   ObservableStringValue get(EditableCharacter character)
+   {
+      return names.computeIfAbsent(character, CharNameIndex::createName);
+   }
+
+   /**
+    * Discards the cached names, once the pool is closed.
+    */
+   void dispose()
+   {
+      pool.getCharacters().removeListener(listener);
+      names.values().forEach(StringBinding::dispose);
+      names.clear();
+   }
+
+   private static StringBinding createName(EditableCharacter c)
+   {
+      return Bindings.createStringBinding(() -> computeName(c), c.strProperty(CharacterField.FIRST_NAME),
+            c.strProperty(CharacterField.LAST_NAME), c.strProperty(CharacterField.NICKNAME), c.editedProperty());
+   }
+
+   private static String computeName(EditableCharacter c)
+   {
+      String fName = c.strProperty(CharacterField.FIRST_NAME).get();
+      String lName = c.strProperty(CharacterField.LAST_NAME).get();
+      String nName = c.strProperty(CharacterField.NICKNAME).get();
+      StringBuilder sb = new StringBuilder().append(fName != null ? fName : "").append(' ');
+      if (nName != null && !nName.isEmpty())
+      {
+         sb.append(nName).append(' ');
+      }
+      sb.append(lName != null ? lName : "");
+      if (c.isEdited())
+      {
+         sb.append('*');
+      }
+      return sb.toString();
+   }
+}
@@ -1,9 +1,17 @@
 package com.wassynger.xcom.pooleditor;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.transformation.FilteredList;
 import javafx.event.Event;
 import javafx.event.EventType;
 import javafx.fxml.FXML;
@@ -25,6 +33,7 @@ import javafx.scene.layout.StackPane;
 
 import com.wassynger.xcom.pooleditor.data.AppearanceField;
 import com.wassynger.xcom.pooleditor.data.CharacterField;
+import com.wassynger.xcom.pooleditor.data.CharacterSearchIndex;
 import com.wassynger.xcom.pooleditor.data.EditableCharPool;
 import com.wassynger.xcom.pooleditor.data.EditableCharacter;
 import com.wassynger.xcom.pooleditor.data.Gender;
@@ -35,6 +44,7 @@ import com.wassynger.xcom.pooleditor.data.Race;
 import com.wassynger.xcom.pooleditor.data.StaticEnum;
 import com.wassynger.xcom.pooleditor.data.StringEntry;
 import com.wassynger.xcom.pooleditor.data.StringTemplate;
+import com.wassynger.xcom.pooleditor.ui.BoundListCell;
 import com.wassynger.xcom.pooleditor.ui.FormattedListCell;
 import com.wassynger.xcom.pooleditor.ui.FxUtilities;
 import org.controlsfx.control.SegmentedButton;
@@ -50,12 +60,26 @@ public class CharPoolView extends BorderPane
    private final HeadView headView;
    private final BodyView bodyView;
    private final WeaponView weaponView;
+   // Kept until their pool is closed, so switching back to a pool reuses
+   // the names already computed
+   private final Map<EditableCharPool, CharNameIndex> nameIndices;
+   private CharNameIndex nameIndex;
+   // Builds the search indices in the background
+   private final ExecutorService searchExecutor;
+   private final Map<EditableCharPool, CharacterSearchIndex> searchIndices;
+   private final InvalidationListener searchRevisionListener;
+   private CharacterSearchIndex searchIndex;
+   private FilteredList<EditableCharacter> filteredChars;
+   // Whether the search is already scheduled to be applied again
+   private boolean refilterPending;
 
    @FXML
    private GridPane viewChar;
    @FXML
    private ScrollPane viewAppDetail;
    @FXML
+   private TextField fieldSearch;
+   @FXML
    private ListView<EditableCharacter> listChar;
    @FXML
    private Label labelPoolName;
@@ -113,6 +137,15 @@ public class CharPoolView extends BorderPane
       this.headView = new HeadView();
       this.bodyView = new BodyView();
       this.weaponView = new WeaponView();
+      this.nameIndices = new IdentityHashMap<>();
+      this.searchExecutor = Executors.newSingleThreadExecutor(r ->
+      {
+         Thread thread = new Thread(r, "char-search-index");
+         thread.setDaemon(true);
+         return thread;
+      });
+      this.searchIndices = new IdentityHashMap<>();
+      this.searchRevisionListener = obs -> scheduleRefilter();
       FxUtilities.load("CharPoolView.fxml", this);
    }
 
@@ -135,8 +168,8 @@ public class CharPoolView extends BorderPane
       buttonRemoveChar.setOnAction(event -> this.fireEvent(new Event(ON_CHAR_REMOVE)));
       buttonRemoveChar.disableProperty().bind(getCharSelectionModel().selectedItemProperty().isNull());
 
-      listChar.setCellFactory(list -> new FormattedListCell<>(this::computeFullName,
-            listChar.getSelectionModel().selectedItemProperty()));
+      listChar.setCellFactory(list -> new BoundListCell<>(c -> nameIndex.get(c)));
+      fieldSearch.textProperty().addListener((obs, old, newValue) -> onSearchChanged(newValue));
       listChar.getSelectionModel()
             .selectedItemProperty()
             .addListener((obs, old, newValue) -> onSelectedCharChanged(old, newValue));
@@ -224,17 +257,32 @@ public class CharPoolView extends BorderPane
       return null;
    }
 
-   private String computeFullName(EditableCharacter c)
+   private void onSearchChanged(String newValue)
+   {
+      if (filteredChars != null)
+      {
+         filteredChars.setPredicate(searchIndex.createFilter(newValue));
+      }
+   }
+
+   // Applies the search again once the current event is handled, so edited
+   // characters are tested against their new values, and the index is used
+   // once it is built. Several changes in a row only apply it once.
+   private void scheduleRefilter()
    {
-      // TODO update
-      String fName = c.getBaseChar().tryGet(CharacterField.FIRST_NAME).orElse("");
-      String lName = c.getBaseChar().tryGet(CharacterField.LAST_NAME).orElse("");
-      String edited = c.isEdited() ? "*" : "";
-      return c.getBaseChar()
-            .tryGet(CharacterField.NICKNAME)
-            .filter(s -> !s.isEmpty())
-            .map(nName -> String.format("%s %s %s%s", fName, nName, lName, edited))
-            .orElse(String.format("%s %s%s", fName, lName, edited));
+      if (refilterPending)
+      {
+         return;
+      }
+      refilterPending = true;
+      Platform.runLater(() ->
+      {
+         refilterPending = false;
+         if (filteredChars != null && filteredChars.getPredicate() != null)
+         {
+            onSearchChanged(fieldSearch.getText());
+         }
+      });
    }
 
    private void onNicknameChanged(String newValue)
@@ -249,14 +297,31 @@ public class CharPoolView extends BorderPane
 
    private void onCharPoolChanged(EditableCharPool newValue)
    {
+      // Each pool starts out unfiltered
+      filteredChars = null;
+      fieldSearch.clear();
+      fieldSearch.promptTextProperty().unbind();
+      if (searchIndex != null)
+      {
+         searchIndex.revisionProperty().removeListener(searchRevisionListener);
+      }
       if (newValue == null)
       {
          labelPoolName.setText("No Pool Opened");
          listChar.setItems(FXCollections.emptyObservableList());
+         nameIndex = null;
+         searchIndex = null;
+         fieldSearch.setPromptText("Search");
          return;
       }
       labelPoolName.setText(newValue.getBasePool().getName());
-      listChar.setItems(newValue.getCharacters());
+      nameIndex = nameIndices.computeIfAbsent(newValue, CharNameIndex::new);
+      searchIndex = prepareSearch(newValue);
+      fieldSearch.promptTextProperty()
+            .bind(Bindings.when(searchIndex.readyProperty()).then("Search").otherwise("Indexing..."));
+      searchIndex.revisionProperty().addListener(searchRevisionListener);
+      filteredChars = new FilteredList<>(newValue.getCharacters());
+      listChar.setItems(filteredChars);
    }
 
    private void unbindCharacter(EditableCharacter character)
@@ -388,6 +453,48 @@ public class CharPoolView extends BorderPane
       return charPool;
    }
 
+   /**
+    * Starts indexing the characters of the given pool for search in the
+    * background, unless they are already indexed.
+    *
+    * @param pool the given pool, non-null
+    * @return the search index of the pool
+    */
+   public CharacterSearchIndex prepareSearch(EditableCharPool pool)
+   {
+      return searchIndices.computeIfAbsent(pool,
+            p -> new CharacterSearchIndex(p, searchExecutor, Platform::runLater));
+   }
+
+   /**
+    * Discards the cached names of the characters of the given pool, once the
+    * pool is closed.
+    *
+    * @param pool the given pool, non-null
+    */
+   public void disposeNames(EditableCharPool pool)
+   {
+      CharNameIndex index = nameIndices.remove(pool);
+      if (index != null)
+      {
+         index.dispose();
+      }
+   }
+
+   /**
+    * Discards the search index of the given pool, once the pool is closed.
+    *
+    * @param pool the given pool, non-null
+    */
+   public void disposeSearch(EditableCharPool pool)
+   {
+      CharacterSearchIndex index = searchIndices.remove(pool);
+      if (index != null)
+      {
+         index.dispose();
+      }
+   }
+
    public SelectionModel<EditableCharacter> getCharSelectionModel()
    {
       return listChar.getSelectionModel();
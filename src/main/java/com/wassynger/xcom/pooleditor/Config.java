@@ -69,6 +69,24 @@ enum Config
             .orElse(Collections.emptyList());
    }
 
+   public boolean getBoolean(Setting setting, boolean defaultValue)
+   {
+      return Optional.ofNullable(config.getProperty(setting.key)).map(Boolean::parseBoolean).orElse(defaultValue);
+   }
+
+   public long getLong(Setting setting, long defaultValue)
+   {
+      try
+      {
+         return Optional.ofNullable(config.getProperty(setting.key)).map(Long::parseLong).orElse(defaultValue);
+      }
+      catch (NumberFormatException e)
+      {
+         System.err.printf("Invalid value for setting %s: %s%n", setting.key, e);
+         return defaultValue;
+      }
+   }
+
    public void set(Setting setting, File file)
    {
       if (file == null)
@@ -93,7 +111,10 @@ enum Config
    {
       LOAD_MOD_DIR("loadModDir"),
       LOAD_POOL_DIR("loadPoolDir"),
-      LOADED_MODS("loadedMods");
+      LOADED_MODS("loadedMods"),
+      POOL_CACHE_ENABLED("poolCacheEnabled"),
+      POOL_CACHE_MAX_SIZE("poolCacheMaxSize"),
+      BACKUP_GENERATIONS("backupGenerations");
 
       private final String key;
 
@@ -1,20 +1,25 @@
 package com.wassynger.xcom.pooleditor;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.DirectoryChooser;
@@ -31,11 +36,23 @@ import com.wassynger.xcom.pooleditor.ui.FxUtilities;
 public class MainController
 {
    private final ExecutorService threadPool;
+   // Bounded pool for loading multiple files at once
+   private final ExecutorService loadThreadPool;
+   private final PoolCache poolCache;
+   private final BackupService backupService;
    private final MainView view;
 
    public MainController()
    {
       this.threadPool = Executors.newCachedThreadPool();
+      this.loadThreadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r ->
+      {
+         Thread thread = new Thread(r, "pool-loader");
+         thread.setDaemon(true);
+         return thread;
+      });
+      this.poolCache = PoolCache.create();
+      this.backupService = BackupService.create();
       this.view = new MainView();
       view.addEventHandler(MainView.ON_QUIT, event -> onQuit());
       view.addEventHandler(MainView.ON_POOL_LOAD, event -> onLoad());
@@ -111,8 +128,9 @@ public class MainController
       if (file != null && file.isFile())
       {
          Config.INSTANCE.set(Config.Setting.LOAD_POOL_DIR, file.getParentFile());
-         backupFile(file);
-         threadPool.execute(new SavePoolTask(pool, file));
+         // The save waits for the backup before replacing the file
+         Future<Boolean> backup = backupService.backup(file.toPath());
+         threadPool.execute(new SavePoolTask(pool, file, backup));
       }
    }
 
@@ -129,27 +147,6 @@ public class MainController
       return fc.showSaveDialog(view.getScene().getWindow());
    }
 
-   private void backupFile(File file)
-   {
-      try
-      {
-         File backupDir = new File("backup");
-         if (!backupDir.isDirectory() && !backupDir.mkdir())
-         {
-            System.err.println("Failed to create backup dir");
-         }
-         else
-         {
-            File backupFile = new File("backup", file.getName());
-            Files.copy(file.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-         }
-      }
-      catch (Exception e)
-      {
-         System.err.printf("Failed to backup save file: %s%n", e);
-      }
-   }
-
    private void onAddPool()
    {
       TextInputDialog dialog = new TextInputDialog("NewPool");
@@ -202,6 +199,7 @@ public class MainController
 
    public void shutdown()
    {
+      loadThreadPool.shutdownNow();
       threadPool.shutdown();
       try
       {
@@ -209,6 +207,7 @@ public class MainController
          {
             System.out.println("Thread pool failed to shutdown within a minute.");
          }
+         backupService.shutdown();
       }
       catch (InterruptedException e)
       {
@@ -216,12 +215,10 @@ public class MainController
       }
    }
 
-   class LoadPoolTask extends Task<List<CharacterPool>>
+   class LoadPoolTask extends Task<List<LoadResult>>
    {
       private final List<File> files;
 
-      private int index = 0;
-
       public LoadPoolTask(List<File> files)
       {
          this.files = files;
@@ -229,36 +226,91 @@ public class MainController
       }
 
       @Override
-      protected List<CharacterPool> call()
+      protected List<LoadResult> call() throws Exception
       {
-         return files.stream().map(this::loadPool).filter(Objects::nonNull).collect(Collectors.toList());
+         long totalBytes = files.stream().mapToLong(File::length).sum();
+         long loadedBytes = 0;
+         updateMessage(String.format("Loading %d file(s)...", files.size()));
+         updateProgress(0, Math.max(totalBytes, 1));
+         CompletionService<LoadResult> completionService = new ExecutorCompletionService<>(loadThreadPool);
+         List<Future<LoadResult>> futures = new ArrayList<>();
+         for (File file : files)
+         {
+            futures.add(completionService.submit(() -> loadPool(file)));
+         }
+         List<LoadResult> results = new ArrayList<>();
+         try
+         {
+            for (int i = 0; i < files.size(); i++)
+            {
+               LoadResult result = completionService.take().get();
+               results.add(result);
+               loadedBytes += result.getFile().length();
+               updateMessage(String.format("Loaded %s (%d/%d)", result.getFile().getName(), i + 1, files.size()));
+               updateProgress(loadedBytes, Math.max(totalBytes, 1));
+               // Show each pool as soon as it is loaded
+               result.getPool()
+                     .map(EditableCharPool::create)
+                     .ifPresent(pool -> Platform.runLater(() -> addOrReplacePool(pool)));
+               // Snapshotting decodes every character of a lazily read pool,
+               // so it is only done once the pool is shown
+               result.getCacheKey()
+                     .ifPresent(key -> threadPool.execute(() -> poolCache.put(key, result.getPool().get())));
+            }
+         }
+         finally
+         {
+            // Only has an effect if this task was cancelled
+            futures.forEach(f -> f.cancel(true));
+         }
+         return results;
       }
 
-      private CharacterPool loadPool(File file)
+      private LoadResult loadPool(File file)
       {
-         updateMessage(String.format("Loading %s...", file.getName()));
-         updateProgress(index++, files.size());
-         try (CharacterPoolReader reader = CharacterPoolReader.open(file.toPath()))
+         long start = System.nanoTime();
+         Optional<PoolCache.Key> key = poolCache.key(file.toPath());
+         // Cached pools are fully decoded rather than lazy, but reading the
+         // snapshot still takes less time than scanning the pool file
+         Optional<CharacterPool> cachedPool = key.flatMap(poolCache::get);
+         if (cachedPool.isPresent())
          {
-            return reader.read();
+            return LoadResult.succeeded(file, cachedPool.get(), null, System.nanoTime() - start);
+         }
+         // Characters are decoded as the view accesses them
+         try (CharacterPoolReader reader = CharacterPoolReader.open(file.toPath(), CharacterPoolReader.Mode.LAZY))
+         {
+            CharacterPool pool = reader.read();
+            if (pool == null)
+            {
+               return LoadResult.failed(file, new IOException("no character pool data found"),
+                     System.nanoTime() - start);
+            }
+            return LoadResult.succeeded(file, pool, key.orElse(null), System.nanoTime() - start);
          }
          catch (Exception e)
          {
-            // TODO
-            return null;
+            return LoadResult.failed(file, e, System.nanoTime() - start);
          }
       }
 
       @Override
       protected void succeeded()
       {
-         EditableCharacter selectedChar = view.getCharPoolView().getCharSelectionModel().getSelectedItem();
-         getValue().stream().map(EditableCharPool::create).forEach(this::addOrReplacePool);
-         view.getCharPoolView().getCharSelectionModel().select(selectedChar);
+         List<LoadResult> failures = getValue().stream()
+               .filter(result -> result.getError().isPresent())
+               .collect(Collectors.toList());
+         if (!failures.isEmpty())
+         {
+            FxUtilities.showError("File Load Error",
+                  String.format("Failed to load %d of %d character pool(s)", failures.size(), files.size()),
+                  failures.stream().map(LoadResult::toString).collect(Collectors.joining(System.lineSeparator())));
+         }
       }
 
       private void addOrReplacePool(EditableCharPool pool)
       {
+         EditableCharacter selectedChar = view.getCharPoolView().getCharSelectionModel().getSelectedItem();
          // Check if we need to replace older loaded pool
          for (int i = 0; i < view.getCharPools().size(); i++)
          {
@@ -268,12 +320,14 @@ public class MainController
                // Replace and select it
                view.getCharPools().set(i, pool);
                selectPoolIfSingle(pool);
+               view.getCharPoolView().getCharSelectionModel().select(selectedChar);
                return;
             }
          }
          // Otherwise just add it
          view.getCharPools().add(pool);
          selectPoolIfSingle(pool);
+         view.getCharPoolView().getCharSelectionModel().select(selectedChar);
       }
 
       private void selectPoolIfSingle(EditableCharPool pool)
@@ -292,27 +346,108 @@ public class MainController
       }
    }
 
-   class SavePoolTask extends Task<Void>
+   /**
+    * The outcome of loading a single pool file.
+    */
+   static final class LoadResult
    {
-      private final EditableCharPool pool;
+      /**
+       * Creates the result of a pool that was loaded.
+       *
+       * @param file          the pool file, non-null
+       * @param pool          the loaded pool, non-null
+       * @param cacheKey      the key to cache the pool under, or null if it
+       *                      should not be cached
+       * @param durationNanos the time taken to load the pool
+       * @return the result
+       */
+      static LoadResult succeeded(File file, CharacterPool pool, PoolCache.Key cacheKey, long durationNanos)
+      {
+         return new LoadResult(file, pool, cacheKey, null, durationNanos);
+      }
+
+      static LoadResult failed(File file, Exception error, long durationNanos)
+      {
+         return new LoadResult(file, null, null, error, durationNanos);
+      }
+
       private final File file;
+      private final CharacterPool pool;
+      private final PoolCache.Key cacheKey;
+      private final Exception error;
+      private final long durationNanos;
 
-      public SavePoolTask(EditableCharPool pool, File file)
+      private LoadResult(File file, CharacterPool pool, PoolCache.Key cacheKey, Exception error, long durationNanos)
       {
+         this.file = file;
          this.pool = pool;
+         this.cacheKey = cacheKey;
+         this.error = error;
+         this.durationNanos = durationNanos;
+      }
+
+      public File getFile()
+      {
+         return file;
+      }
+
+      public Optional<CharacterPool> getPool()
+      {
+         return Optional.ofNullable(pool);
+      }
+
+      Optional<PoolCache.Key> getCacheKey()
+      {
+         return Optional.ofNullable(cacheKey);
+      }
+
+      public Optional<Exception> getError()
+      {
+         return Optional.ofNullable(error);
+      }
+
+      public long getDurationMillis()
+      {
+         return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+      }
+
+      @Override
+      public String toString()
+      {
+         return error != null ?
+               String.format("%s: %s (%d ms)", file.getName(), error, getDurationMillis()) :
+               String.format("%s: %d character(s) (%d ms)", file.getName(), pool.getCharacters().size(),
+                     getDurationMillis());
+      }
+   }
+
+   class SavePoolTask extends Task<Void>
+   {
+      private final EditableCharPool.Snapshot pool;
+      private final File file;
+      private final Future<Boolean> backup;
+
+      public SavePoolTask(EditableCharPool pool, File file, Future<Boolean> backup)
+      {
+         // Taken on the JavaFX thread, since the list of characters must not be
+         // accessed while the task runs
+         this.pool = pool.snapshot();
          this.file = file;
+         this.backup = backup;
          view.getProgressView().bind(this);
       }
 
       @Override
       protected Void call() throws Exception
       {
+         updateMessage("Backing up pool file...");
+         backup.get();
          updateMessage("Saving pool to file...");
-         try (CharacterPoolWriter writer = CharacterPoolWriter.open(file.toPath()))
+         // Only edited characters need to be encoded, the rest are copied
+         try (CharacterPoolWriter writer = CharacterPoolWriter.open(file.toPath(),
+               CharacterPoolWriter.Mode.INCREMENTAL))
          {
-            CharacterPool updatedPool = new CharacterPool(file.toPath(), pool.getBasePool().getName(), file.getName(),
-                  pool.getCharacters().stream().map(EditableCharacter::computeEditedChar).collect(Collectors.toList()));
-            writer.write(updatedPool);
+            writer.write(pool, file.getName());
          }
          return null;
       }
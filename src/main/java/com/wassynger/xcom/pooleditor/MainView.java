@@ -4,6 +4,7 @@ import java.util.Comparator;
 
 import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.Event;
 import javafx.event.EventType;
@@ -46,6 +47,8 @@ public class MainView extends BorderPane
    @FXML
    private Label labelPlaceholder;
    @FXML
+   private Label labelChanges;
+   @FXML
    private ListView<EditableCharPool> listPool;
    @FXML
    private Button buttonAddPool;
@@ -79,6 +82,7 @@ public class MainView extends BorderPane
       centerProperty().bind(Bindings.createObjectBinding(this::computeCenter, progressView.activeProperty(),
             getCharPoolSelectionModel().selectedItemProperty()));
       labelPlaceholder.textProperty().bind(Bindings.createStringBinding(this::computePlaceholderText, charPools));
+      charPools.addListener(this::onCharPoolsChanged);
 
       buttonAddPool.setOnAction(event -> this.fireEvent(new Event(ON_POOL_ADD)));
       buttonRemovePool.setOnAction(event -> this.fireEvent(new Event(ON_POOL_REMOVE)));
@@ -86,10 +90,31 @@ public class MainView extends BorderPane
       buttonLoadPool.setOnAction(event -> this.fireEvent(new Event(ON_POOL_LOAD)));
    }
 
+   private void onCharPoolsChanged(ListChangeListener.Change<? extends EditableCharPool> change)
+   {
+      // Pools are indexed for search as soon as they are loaded
+      while (change.next())
+      {
+         change.getRemoved().forEach(charPoolView::disposeNames);
+         change.getRemoved().forEach(charPoolView::disposeSearch);
+         change.getAddedSubList().forEach(charPoolView::prepareSearch);
+      }
+   }
+
    private void onSelectedPoolChanged(EditableCharPool pool)
    {
       listPool.setCellFactory(
             list -> new FormattedListCell<>(this::computePoolText, pool != null ? pool.editedProperty() : null));
+      labelChanges.textProperty().unbind();
+      if (pool != null)
+      {
+         labelChanges.textProperty().bind(Bindings.createStringBinding(
+               () -> String.format("%d unsaved change(s)", pool.getChangeCount()), pool.changeCountProperty()));
+      }
+      else
+      {
+         labelChanges.setText("");
+      }
    }
 
    private String computePoolText(EditableCharPool pool)
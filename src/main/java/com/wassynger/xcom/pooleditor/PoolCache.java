@@ -0,0 +1,328 @@
+package com.wassynger.xcom.pooleditor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.wassynger.xcom.pooleditor.data.CharacterPool;
+import com.wassynger.xcom.pooleditor.data.CharacterPoolSnapshot;
+
+/**
+ * On-disk cache of parsed character pools, stored next to the config file.
+ * Each pool file is cached as a {@linkplain CharacterPoolSnapshot snapshot},
+ * keyed by its absolute path, size, last modified time and a hash of its
+ * contents. Entries written by another version of the cache or snapshot format
+ * are discarded. Once the cache grows past its maximum size, the least
+ * recently used entries are evicted.
+ *
+ * @author Zach Wassynger
+ */
+final class PoolCache
+{
+   private static final Path CACHE_DIR = Paths.get("pool-cache");
+   private static final String EXTENSION = ".cache";
+   private static final int CACHE_VERSION = 1;
+   private static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+   private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Creates the cache from the current settings.
+    *
+    * @return the cache, which does nothing if it has been disabled
+    */
+   static PoolCache create()
+   {
+      return new PoolCache(CACHE_DIR, Config.INSTANCE.getLong(Config.Setting.POOL_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE),
+            Config.INSTANCE.getBoolean(Config.Setting.POOL_CACHE_ENABLED, true));
+   }
+
+   private final Path directory;
+   private final long maxSize;
+   private final boolean enabled;
+
+   PoolCache(Path directory, long maxSize, boolean enabled)
+   {
+      this.directory = Objects.requireNonNull(directory);
+      this.maxSize = maxSize;
+      this.enabled = enabled;
+   }
+
+   /**
+    * Computes the key of the given pool file in its current state. The key
+    * should be computed before the file is parsed, so a file that changes
+    * while it is being parsed is not cached under its new key.
+    *
+    * @param file the pool file, non-null
+    * @return the key, or empty if the cache is disabled or the file could not
+    *       be read
+    */
+   Optional<Key> key(Path file)
+   {
+      if (!enabled)
+      {
+         return Optional.empty();
+      }
+      try
+      {
+         Path path = file.toAbsolutePath().normalize();
+         long size = Files.size(path);
+         long lastModified = Files.getLastModifiedTime(path).toMillis();
+         return Optional.of(new Key(path, size, lastModified, hash(path)));
+      }
+      catch (IOException e)
+      {
+         System.err.printf("Failed to compute cache key for %s: %s%n", file, e);
+         return Optional.empty();
+      }
+   }
+
+   /**
+    * Returns the cached pool for the given key. Entries that are stale or
+    * unreadable are removed.
+    *
+    * @param key the given key, non-null
+    * @return the pool, or empty if it is not cached
+    */
+   Optional<CharacterPool> get(Key key)
+   {
+      Path entry = entryPath(key);
+      if (!Files.isRegularFile(entry))
+      {
+         return Optional.empty();
+      }
+      try
+      {
+         ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(entry));
+         if (buffer.getInt() != CACHE_VERSION || buffer.getInt() != CharacterPoolSnapshot.FORMAT_VERSION ||
+             !key.equals(readKey(buffer)))
+         {
+            Files.deleteIfExists(entry);
+            return Optional.empty();
+         }
+         CharacterPool pool = CharacterPoolSnapshot.read(key.path, buffer);
+         // Track use for eviction
+         Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+         return Optional.of(pool);
+      }
+      catch (Exception e)
+      {
+         System.err.printf("Failed to read cache entry for %s: %s%n", key.path, e);
+         deleteQuietly(entry);
+         return Optional.empty();
+      }
+   }
+
+   /**
+    * Caches the given pool under the given key, then evicts entries until the
+    * cache is within its maximum size. Read-only pools are not cached. Every
+    * character of the pool is decoded, so lazily read pools should be cached
+    * in the background.
+    *
+    * @param key  the key computed before the pool was parsed, non-null
+    * @param pool the parsed pool, non-null
+    */
+   void put(Key key, CharacterPool pool)
+   {
+      if (pool.isReadOnly())
+      {
+         return;
+      }
+      Path entry = entryPath(key);
+      Path tempEntry = entry.resolveSibling(entry.getFileName() + ".tmp");
+      try
+      {
+         Files.createDirectories(directory);
+         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempEntry))))
+         {
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(CharacterPoolSnapshot.FORMAT_VERSION);
+            writeKey(out, key);
+            CharacterPoolSnapshot.write(pool, out);
+         }
+         try
+         {
+            Files.move(tempEntry, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         }
+         catch (AtomicMoveNotSupportedException e)
+         {
+            // A partially moved entry fails its checks when it is read
+            Files.move(tempEntry, entry, StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      catch (Exception e)
+      {
+         System.err.printf("Failed to write cache entry for %s: %s%n", key.path, e);
+         deleteQuietly(tempEntry);
+         return;
+      }
+      evict();
+   }
+
+   private synchronized void evict()
+   {
+      List<Path> entries;
+      try (Stream<Path> stream = Files.list(directory))
+      {
+         entries = stream.filter(p -> p.getFileName().toString().endsWith(EXTENSION)).collect(Collectors.toList());
+      }
+      catch (IOException e)
+      {
+         System.err.printf("Failed to list cache entries: %s%n", e);
+         return;
+      }
+      List<CacheFile> files = new ArrayList<>(entries.size());
+      long totalSize = 0;
+      for (Path entry : entries)
+      {
+         try
+         {
+            CacheFile file = new CacheFile(entry, Files.size(entry), Files.getLastModifiedTime(entry).toMillis());
+            files.add(file);
+            totalSize += file.size;
+         }
+         catch (IOException e)
+         {
+            // Entry was removed in the meantime
+         }
+      }
+      if (totalSize <= maxSize)
+      {
+         return;
+      }
+      // Remove least recently used entries first
+      files.sort(Comparator.comparingLong(f -> f.lastUsed));
+      for (CacheFile file : files)
+      {
+         if (totalSize <= maxSize)
+         {
+            break;
+         }
+         deleteQuietly(file.path);
+         totalSize -= file.size;
+      }
+   }
+
+   private Path entryPath(Key key)
+   {
+      String path = key.path.toString();
+      CRC32 crc = new CRC32();
+      crc.update(path.getBytes(StandardCharsets.UTF_8));
+      // Collisions are detected by the key stored within the entry
+      return directory.resolve(String.format("%08x%08x%s", path.hashCode(), crc.getValue(), EXTENSION));
+   }
+
+   private static long hash(Path path) throws IOException
+   {
+      CRC32 crc = new CRC32();
+      ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+      {
+         while (channel.read(buffer) != -1)
+         {
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+         }
+      }
+      return crc.getValue();
+   }
+
+   private static void writeKey(DataOutputStream out, Key key) throws IOException
+   {
+      byte[] path = key.path.toString().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(path.length);
+      out.write(path);
+      out.writeLong(key.size);
+      out.writeLong(key.lastModified);
+      out.writeLong(key.contentHash);
+   }
+
+   private static Key readKey(ByteBuffer buffer)
+   {
+      byte[] path = new byte[buffer.getInt()];
+      buffer.get(path);
+      return new Key(Paths.get(new String(path, StandardCharsets.UTF_8)), buffer.getLong(), buffer.getLong(),
+            buffer.getLong());
+   }
+
+   private static void deleteQuietly(Path path)
+   {
+      try
+      {
+         Files.deleteIfExists(path);
+      }
+      catch (IOException e)
+      {
+         System.err.printf("Failed to delete %s: %s%n", path, e);
+      }
+   }
+
+   /**
+    * Identifies a pool file in a specific state.
+    */
+   static final class Key
+   {
+      private final Path path;
+      private final long size;
+      private final long lastModified;
+      private final long contentHash;
+
+      private Key(Path path, long size, long lastModified, long contentHash)
+      {
+         this.path = path;
+         this.size = size;
+         this.lastModified = lastModified;
+         this.contentHash = contentHash;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (!(o instanceof Key))
+         {
+            return false;
+         }
+         Key key = (Key) o;
+         return size == key.size && lastModified == key.lastModified && contentHash == key.contentHash &&
+                Objects.equals(path, key.path);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return Objects.hash(path, size, lastModified, contentHash);
+      }
+   }
+
+   private static final class CacheFile
+   {
+      private final Path path;
+      private final long size;
+      private final long lastUsed;
+
+      private CacheFile(Path path, long size, long lastUsed)
+      {
+         this.path = path;
+         this.size = size;
+         this.lastUsed = lastUsed;
+      }
+   }
+}
@@ -9,11 +9,27 @@ class ArrayPropertyValue implements PropertyValue
 {
    private final List<Property> headers;
    private final List<Entry> entries;
+   private final EntryIndex index;
+   // Computed on first use, since the headers and entries do not change
+   private int length = -1;
 
    public ArrayPropertyValue(List<Property> headers, List<Entry> entries)
    {
       this.headers = headers;
       this.entries = entries;
+      this.index = null;
+   }
+
+   ArrayPropertyValue(List<Property> headers, EntryIndex index)
+   {
+      this.headers = headers;
+      this.entries = index.entries();
+      this.index = index;
+   }
+
+   public List<Property> getHeaders()
+   {
+      return headers;
    }
 
    public Optional<Property> getHeader(String name)
@@ -26,6 +42,16 @@ class ArrayPropertyValue implements PropertyValue
       return entries;
    }
 
+   /**
+    * Returns the index of the entries if they are decoded on demand.
+    *
+    * @return the entry index, or empty if the entries are already decoded
+    */
+   Optional<EntryIndex> getIndex()
+   {
+      return Optional.ofNullable(index);
+   }
+
    @Override
    public String getDisplayValue()
    {
@@ -57,12 +83,31 @@ class ArrayPropertyValue implements PropertyValue
 
    @Override
    public void write(PropertyWriter writer) throws IOException
+   {
+      writeStart(writer, headers, entries.size());
+      for (Entry entry : entries)
+      {
+         entry.write(writer);
+      }
+      writeEnd(writer, headers);
+   }
+
+   /**
+    * Writes the start of an array value, which is everything that comes before
+    * its first entry.
+    *
+    * @param writer     the writer, non-null
+    * @param headers    the headers of the array, non-null
+    * @param numEntries the number of entries
+    * @throws IOException if some error occurred while writing
+    */
+   static void writeStart(PropertyWriter writer, List<Property> headers, int numEntries) throws IOException
    {
       // size
       // TODO 4 or length?
       writer.write(4);
       writer.writePadding();
-      writer.write(entries.size());
+      writer.write(numEntries);
       if (!headers.isEmpty())
       {
          for (Property header : headers)
@@ -70,17 +115,20 @@ class ArrayPropertyValue implements PropertyValue
             writer.write(header);
          }
          writer.writeNone();
-         writer.write(entries.size());
-      }
-      for (Entry entry : entries)
-      {
-         for (Property property : entry.properties)
-         {
-            writer.write(property);
-         }
-         // End each entry with 'None'
-         writer.writeNone();
+         writer.write(numEntries);
       }
+   }
+
+   /**
+    * Writes the end of an array value, which is everything that comes after its
+    * last entry.
+    *
+    * @param writer  the writer, non-null
+    * @param headers the headers of the array, non-null
+    * @throws IOException if some error occurred while writing
+    */
+   static void writeEnd(PropertyWriter writer, List<Property> headers) throws IOException
+   {
       // End with a 'None' if we had no headers
       if (headers.isEmpty())
       {
@@ -91,11 +139,28 @@ class ArrayPropertyValue implements PropertyValue
    @Override
    public int length()
    {
-      // size + padding + num entries (int) + headers + none +
-      // (num entries if headers exist) + entries + none
-      int headerSize = headers.isEmpty() ? 0 : headers.stream().mapToInt(Property::computeLength).sum() + Property.NONE_NUM_BYTES;
-      int entriesSize = entries.stream().mapToInt(Entry::computeLength).sum();
-      return Integer.BYTES + Integer.BYTES + Integer.BYTES + headerSize + entriesSize + Property.NONE_NUM_BYTES;
+      if (length >= 0)
+      {
+         return length;
+      }
+      // size + padding + num entries (int) + headers + none + num entries +
+      // entries, or size + padding + num entries (int) + entries + none if
+      // there are no headers
+      int len = Integer.BYTES + Integer.BYTES + Integer.BYTES + Property.NONE_NUM_BYTES;
+      if (!headers.isEmpty())
+      {
+         len += Integer.BYTES;
+         for (Property header : headers)
+         {
+            len += header.computeLength();
+         }
+      }
+      for (Entry entry : entries)
+      {
+         len += entry.computeLength();
+      }
+      length = len;
+      return len;
    }
 
    @Override
@@ -107,6 +172,8 @@ class ArrayPropertyValue implements PropertyValue
    public static class Entry
    {
       private final List<Property> properties;
+      // Computed on first use, since the properties do not change
+      private int length = -1;
 
       public Entry(List<Property> properties)
       {
@@ -118,9 +185,29 @@ class ArrayPropertyValue implements PropertyValue
          return properties;
       }
 
+      public void write(PropertyWriter writer) throws IOException
+      {
+         for (Property property : properties)
+         {
+            writer.write(property);
+         }
+         // End each entry with 'None'
+         writer.writeNone();
+      }
+
       public int computeLength()
       {
-         return properties.stream().mapToInt(Property::computeLength).sum() + Property.NONE_NUM_BYTES;
+         int len = length;
+         if (len < 0)
+         {
+            len = Property.NONE_NUM_BYTES;
+            for (Property property : properties)
+            {
+               len += property.computeLength();
+            }
+            length = len;
+         }
+         return len;
       }
 
       @Override
@@ -5,9 +5,23 @@ import java.util.Objects;
 
 class BoolPropertyValue implements PropertyValue
 {
+   private static final BoolPropertyValue TRUE = new BoolPropertyValue(true);
+   private static final BoolPropertyValue FALSE = new BoolPropertyValue(false);
+
+   /**
+    * Returns the shared value for the given boolean.
+    *
+    * @param value the given boolean
+    * @return the value
+    */
+   static BoolPropertyValue of(boolean value)
+   {
+      return value ? TRUE : FALSE;
+   }
+
    private final boolean value;
 
-   BoolPropertyValue(boolean value)
+   private BoolPropertyValue(boolean value)
    {
       this.value = value;
    }
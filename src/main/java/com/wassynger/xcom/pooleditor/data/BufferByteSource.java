@@ -0,0 +1,164 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * Reads from a byte buffer. All reads are done at absolute offsets, so the
+ * state of the buffer itself is never modified and multiple sources may share
+ * the same buffer. End of data is detected explicitly instead of through
+ * exceptions.
+ *
+ * @author Zach Wassynger
+ */
+final class BufferByteSource implements ByteSource
+{
+   private final ByteBuffer buffer;
+   private final int limit;
+   // Scratch space for decoding strings from buffers without a backing array
+   private byte[] scratch;
+   private int pos;
+
+   /**
+    * Creates a new source over the given buffer, starting at its current
+    * position and ending at its limit.
+    *
+    * @param buffer the given buffer, non-null
+    * @throws NullPointerException if buffer is null
+    */
+   BufferByteSource(ByteBuffer buffer)
+   {
+      this(buffer, buffer.position());
+   }
+
+   /**
+    * Creates a new source over the given buffer, starting at the given
+    * absolute position and ending at its limit.
+    *
+    * @param buffer   the given buffer, non-null
+    * @param position the absolute start position
+    * @throws NullPointerException if buffer is null
+    */
+   BufferByteSource(ByteBuffer buffer, int position)
+   {
+      this.buffer = Objects.requireNonNull(buffer).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      this.limit = buffer.limit();
+      this.pos = position;
+      this.scratch = new byte[64];
+   }
+
+   @Override
+   public int position()
+   {
+      return pos;
+   }
+
+   @Override
+   public int remaining()
+   {
+      return limit - pos;
+   }
+
+   @Override
+   public boolean hasRemaining()
+   {
+      return pos < limit;
+   }
+
+   @Override
+   public boolean startsWith(byte[] data)
+   {
+      if (limit - pos < data.length)
+      {
+         return false;
+      }
+      for (int i = 0; i < data.length; i++)
+      {
+         if (buffer.get(pos + i) != data[i])
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public boolean readBool() throws IOException
+   {
+      require(Byte.BYTES, "bool");
+      return buffer.get(pos++) != 0;
+   }
+
+   @Override
+   public int readInt() throws IOException
+   {
+      require(Integer.BYTES, "int");
+      int value = buffer.getInt(pos);
+      pos += Integer.BYTES;
+      return value;
+   }
+
+   @Override
+   public String readString(int len) throws IOException
+   {
+      checkString(len);
+      String str;
+      if (buffer.hasArray())
+      {
+         str = new String(buffer.array(), buffer.arrayOffset() + pos, len - 1, Property.STRING_CHARSET);
+      }
+      else
+      {
+         if (scratch.length < len)
+         {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+         }
+         for (int i = 0; i < len - 1; i++)
+         {
+            scratch[i] = buffer.get(pos + i);
+         }
+         str = new String(scratch, 0, len - 1, Property.STRING_CHARSET);
+      }
+      pos += len;
+      return str;
+   }
+
+   @Override
+   public String readSymbol(int len) throws IOException
+   {
+      checkString(len);
+      String str = SymbolTable.intern(buffer, pos, len - 1);
+      pos += len;
+      return str;
+   }
+
+   @Override
+   public void skip(int len) throws IOException
+   {
+      require(len, "value");
+      pos += len;
+   }
+
+   // Checks that the string at the current position is complete
+   private void checkString(int len) throws IOException
+   {
+      require(len, "string");
+      int end = pos + len - 1;
+      if (buffer.get(end) != '\0')
+      {
+         throw new IOException(
+               String.format("pos %d: expected '\\0' to end string, got %c", end, (char) buffer.get(end)));
+      }
+   }
+
+   private void require(int len, String what) throws IOException
+   {
+      if (limit - pos < len)
+      {
+         throw new IOException(
+               String.format("pos %d: missing data for %s; expected %d bytes, got %d", pos, what, len, limit - pos));
+      }
+   }
+}
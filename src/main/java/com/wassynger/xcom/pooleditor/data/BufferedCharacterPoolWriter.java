@@ -0,0 +1,155 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Implementation of {@link CharacterPoolWriter} that computes the exact size of
+ * the pool up front, encodes it into a single little endian buffer via a
+ * {@link PropertyEncoder}, and then sends the buffer to the file with one
+ * channel write. Characters are encoded through a {@link CharacterEncoder}, so
+ * those that share a layout only have their values encoded. The buffer is
+ * reused between writes. Very large pools are encoded in chunks instead, which
+ * are written whenever the buffer fills up.
+ *
+ * @author Zach Wassynger
+ */
+final class BufferedCharacterPoolWriter implements CharacterPoolWriter
+{
+   // Pools larger than this are encoded in chunks of this size instead of a
+   // single buffer
+   private static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+   private final FileChannel channel;
+   // Kept between writes, so the template of the layout is reused
+   private final CharacterEncoder charEncoder = new CharacterEncoder();
+   private ByteBuffer buffer;
+
+   BufferedCharacterPoolWriter(Path path) throws IOException
+   {
+      this.channel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+   }
+
+   /**
+    * Writes the given character pool to the file.
+    *
+    * @param pool the given pool, non-null
+    * @throws IOException              if some error occurred while writing to file
+    * @throws NullPointerException     if the pool is null
+    * @throws IllegalArgumentException if the pool is read-only
+    */
+   @Override
+   public void write(CharacterPool pool) throws IOException
+   {
+      if (pool.isReadOnly())
+      {
+         throw new IllegalArgumentException(String.format("cannot write read-only pool '%s'", pool.getName()));
+      }
+      List<Property> headers = pool.toHeaders();
+      List<Character> characters = pool.getCharacters();
+      // start + characters + end
+      long size = CharacterPool.computeStartLength(headers) + (headers.isEmpty() ? Property.NONE_NUM_BYTES : 0);
+      for (Character character : characters)
+      {
+         size += charEncoder.prepare(character);
+      }
+      if (size > Integer.MAX_VALUE)
+      {
+         throw new IOException(String.format("pool too large: %d bytes", size));
+      }
+      if (size > MAX_BUFFER_SIZE)
+      {
+         writeChunked(headers, characters, size);
+         return;
+      }
+      ByteBuffer target = prepareBuffer((int) size);
+      PropertyEncoder encoder = new PropertyEncoder(target);
+      CharacterPool.writeStart(encoder, headers, characters.size());
+      for (Character character : characters)
+      {
+         charEncoder.prepare(character);
+         charEncoder.encode(encoder);
+      }
+      ArrayPropertyValue.writeEnd(encoder, headers);
+      checkSize(size, encoder.position());
+      target.limit((int) size);
+      flushBuffer();
+   }
+
+   // Encodes the pool into a buffer of the maximum size, which is written
+   // whenever the next character does not fit
+   private void writeChunked(List<Property> headers, List<Character> characters, long size) throws IOException
+   {
+      ByteBuffer target = prepareBuffer(MAX_BUFFER_SIZE);
+      long written = 0;
+      PropertyEncoder encoder = new PropertyEncoder(target);
+      CharacterPool.writeStart(encoder, headers, characters.size());
+      for (Character character : characters)
+      {
+         int length = charEncoder.prepare(character);
+         if (target.capacity() - encoder.position() < length)
+         {
+            target.limit(encoder.position());
+            written += flushBuffer();
+            target = prepareBuffer(length);
+            encoder = new PropertyEncoder(target);
+         }
+         charEncoder.encode(encoder);
+      }
+      if (target.capacity() - encoder.position() < Property.NONE_NUM_BYTES)
+      {
+         target.limit(encoder.position());
+         written += flushBuffer();
+         target = prepareBuffer(Property.NONE_NUM_BYTES);
+         encoder = new PropertyEncoder(target);
+      }
+      ArrayPropertyValue.writeEnd(encoder, headers);
+      checkSize(size, written + encoder.position());
+      target.limit(encoder.position());
+      flushBuffer();
+   }
+
+   // Returns the cleared buffer, with room for at least the given size
+   private ByteBuffer prepareBuffer(int size)
+   {
+      if (buffer == null || buffer.capacity() < size)
+      {
+         buffer = ByteBuffer.allocate(size);
+      }
+      buffer.clear();
+      return buffer;
+   }
+
+   // Writes the buffer up to its limit, and returns the number of bytes
+   private int flushBuffer() throws IOException
+   {
+      buffer.position(0);
+      int length = buffer.limit();
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+      return length;
+   }
+
+   private static void checkSize(long expected, long actual)
+   {
+      if (actual != expected)
+      {
+         throw new IllegalStateException(String.format("computed size %d but wrote %d bytes", expected, actual));
+      }
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      buffer = null;
+      channel.close();
+   }
+}
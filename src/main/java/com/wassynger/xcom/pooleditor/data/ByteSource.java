@@ -0,0 +1,92 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+
+/**
+ * Little endian data that a {@link PropertyDecoder} reads its values from,
+ * either a buffer or a stream. Every read throws an {@link IOException} if
+ * there is not enough data left.
+ *
+ * @author Zach Wassynger
+ */
+interface ByteSource
+{
+   /**
+    * Returns the number of bytes read so far, or the absolute position in
+    * the buffer.
+    *
+    * @return the position
+    */
+   int position();
+
+   /**
+    * Returns an upper bound on the number of bytes left to read.
+    *
+    * @return the number of bytes, or {@link Integer#MAX_VALUE} if the end of
+    * the data is not known
+    */
+   int remaining();
+
+   /**
+    * Returns whether there is any data left to read.
+    *
+    * @return true if there is remaining data
+    * @throws IOException if some error occurred while reading
+    */
+   boolean hasRemaining() throws IOException;
+
+   /**
+    * Returns whether the next bytes are the given data, without reading them.
+    *
+    * @param data the given data, non-null
+    * @return true if the next bytes match
+    * @throws IOException if some error occurred while reading
+    */
+   boolean startsWith(byte[] data) throws IOException;
+
+   /**
+    * Reads a single byte as a bool.
+    *
+    * @return false if the byte is 0, true otherwise
+    * @throws IOException if the data is missing
+    */
+   boolean readBool() throws IOException;
+
+   /**
+    * Reads a 4 byte integer.
+    *
+    * @return the integer
+    * @throws IOException if the data is missing
+    */
+   int readInt() throws IOException;
+
+   /**
+    * Reads a string of the given length, which must end with a null
+    * terminator.
+    *
+    * @param len the length of the string, including the null terminator
+    * @return the string, without the null terminator
+    * @throws IOException if the data is missing or the string is not null
+    *                     terminated
+    */
+   String readString(int len) throws IOException;
+
+   /**
+    * Reads a string like {@link #readString(int)}, returning the canonical
+    * instance from the {@link SymbolTable}.
+    *
+    * @param len the length of the string, including the null terminator
+    * @return the canonical string
+    * @throws IOException if the data is missing or the string is not null
+    *                     terminated
+    */
+   String readSymbol(int len) throws IOException;
+
+   /**
+    * Skips the given number of bytes.
+    *
+    * @param len the number of bytes, non-negative
+    * @throws IOException if the data is missing
+    */
+   void skip(int len) throws IOException;
+}
@@ -1,57 +1,270 @@
 package com.wassynger.xcom.pooleditor.data;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 public class Character
 {
    static Character fromProperties(List<Property> properties)
    {
-      Map<PropertyField, PropertyValue> map = Property.toMap(properties);
-      if (map.containsKey(CharacterField.APPEARANCE))
+      return fromProperties(properties, false);
+   }
+
+   /**
+    * Creates a character from the properties of an entry that was read from
+    * the given range of the source file. As long as the file is unchanged, the
+    * raw bytes of the range can be written in place of encoding the character.
+    *
+    * @param properties the properties of the entry
+    * @param source     the file the entry was read from, or null if unknown
+    * @param offset     the offset of the entry within the file
+    * @param length     the size of the entry in bytes, including the trailing
+    *                   'None'
+    * @return the character
+    */
+   static Character fromProperties(List<Property> properties, PoolSource source, long offset, int length)
+   {
+      return new Character(properties, false, source, offset, length);
+   }
+
+   static Character fromProperties(List<Property> properties, boolean readOnly)
+   {
+      return new Character(properties, readOnly, null, -1, 0);
+   }
+
+   private static final CharacterField[] CHARACTER_FIELDS = CharacterField.values();
+   private static final int NUM_APPEARANCE_FIELDS = AppearanceField.values().length;
+   // Marks the position of the next unknown field in the field order
+   private static final byte UNKNOWN = -1;
+
+   // Values of known fields, indexed by ordinal
+   private final PropertyValue[] values;
+   // Values of appearance fields, indexed by ordinal, or null if there are none
+   private final PropertyValue[] appearanceValues;
+   // Top-level fields that are not known, in their original order
+   private final List<Property> unknowns;
+   // Original order of the top-level fields, as ordinals of known fields or
+   // UNKNOWN for the next unknown field
+   private final byte[] order;
+   private final boolean readOnly;
+   // Location of the serialized entry, if it is known
+   private final PoolSource source;
+   private final long sourceOffset;
+   private final int sourceLength;
+
+   private Character(List<Property> properties, boolean readOnly, PoolSource source, long sourceOffset,
+         int sourceLength)
+   {
+      PropertyValue[] values = new PropertyValue[CHARACTER_FIELDS.length];
+      PropertyValue[] appearanceValues = null;
+      List<Property> unknowns = null;
+      byte[] order = new byte[properties.size()];
+      int numOrdered = 0;
+      for (Property property : properties)
+      {
+         PropertyField field = property.getField();
+         // Only the first of any duplicate fields is kept
+         if (field instanceof CharacterField)
+         {
+            int ordinal = ((CharacterField) field).ordinal();
+            if (values[ordinal] == null)
+            {
+               values[ordinal] = property.getValue();
+               order[numOrdered++] = (byte) ordinal;
+            }
+         }
+         else if (field instanceof AppearanceField)
+         {
+            // Only read-only characters have appearance fields at the top level,
+            // which are never serialized
+            if (appearanceValues == null)
+            {
+               appearanceValues = new PropertyValue[NUM_APPEARANCE_FIELDS];
+            }
+            int ordinal = ((AppearanceField) field).ordinal();
+            if (appearanceValues[ordinal] == null)
+            {
+               appearanceValues[ordinal] = property.getValue();
+            }
+         }
+         else if (unknowns == null || findFirst(unknowns, field) == null)
+         {
+            if (unknowns == null)
+            {
+               unknowns = new ArrayList<>(2);
+            }
+            unknowns.add(property);
+            order[numOrdered++] = UNKNOWN;
+         }
+      }
+      StructPropertyValue appearance = (StructPropertyValue) values[CharacterField.APPEARANCE.ordinal()];
+      if (appearance != null)
       {
-         // Special case, iterate and add children of appearance
-         StructPropertyValue appearance = (StructPropertyValue) map.get(CharacterField.APPEARANCE);
+         // Children of appearance take precedence over any at the top level
          for (Property aProp : appearance.getEntries())
          {
-            map.put(aProp.getField(), aProp.getValue());
+            if (aProp.getField() instanceof AppearanceField)
+            {
+               if (appearanceValues == null)
+               {
+                  appearanceValues = new PropertyValue[NUM_APPEARANCE_FIELDS];
+               }
+               appearanceValues[((AppearanceField) aProp.getField()).ordinal()] = aProp.getValue();
+            }
          }
       }
-      return new Character(map);
+      this.values = values;
+      this.appearanceValues = appearanceValues;
+      this.unknowns = unknowns != null ? unknowns : Collections.emptyList();
+      this.order = numOrdered == order.length ? order : Arrays.copyOf(order, numOrdered);
+      this.readOnly = readOnly;
+      this.source = source;
+      this.sourceOffset = sourceOffset;
+      this.sourceLength = sourceLength;
    }
 
-   private final Map<PropertyField, PropertyValue> map;
-
-   private Character(Map<PropertyField, PropertyValue> map)
+   private static Property findFirst(List<Property> properties, PropertyField field)
    {
-      this.map = map;
+      for (Property property : properties)
+      {
+         if (property.getField().equals(field))
+         {
+            return property;
+         }
+      }
+      return null;
    }
 
    public PropertyValue get(PropertyField field)
    {
-      return map.get(field);
+      if (field instanceof CharacterField)
+      {
+         return values[((CharacterField) field).ordinal()];
+      }
+      if (field instanceof AppearanceField)
+      {
+         return appearanceValues != null ? appearanceValues[((AppearanceField) field).ordinal()] : null;
+      }
+      StructPropertyValue appearance = (StructPropertyValue) values[CharacterField.APPEARANCE.ordinal()];
+      if (appearance != null)
+      {
+         // The last of any duplicate children is the one that takes precedence
+         List<Property> entries = appearance.getEntries();
+         for (int i = entries.size() - 1; i >= 0; i--)
+         {
+            if (entries.get(i).getField().equals(field))
+            {
+               return entries.get(i).getValue();
+            }
+         }
+      }
+      Property property = findFirst(unknowns, field);
+      return property != null ? property.getValue() : null;
    }
 
    public Optional<String> tryGet(PropertyField field)
    {
-      return Optional.ofNullable(map.get(field)).map(PropertyValue::getDisplayValue);
+      return Optional.ofNullable(get(field)).map(PropertyValue::getDisplayValue);
+   }
+
+   /**
+    * Returns whether this character only holds some of its fields, in which
+    * case it cannot be serialized.
+    *
+    * @return true if the character is read-only
+    */
+   public boolean isReadOnly()
+   {
+      return readOnly;
+   }
+
+   /**
+    * Returns the file this character was read from, if the location of its
+    * entry within the file is known.
+    *
+    * @return the source file, or null if unknown
+    */
+   PoolSource getSource()
+   {
+      return source;
+   }
+
+   long getSourceOffset()
+   {
+      return sourceOffset;
+   }
+
+   int getSourceLength()
+   {
+      return sourceLength;
    }
 
    ArrayPropertyValue.Entry toEntry()
    {
-      return new ArrayPropertyValue.Entry(map.entrySet()
-            .stream()
-            // Remove appearance field entries (since they will be in the struct)
-            .filter(e -> !(e.getKey() instanceof AppearanceField))
-            .map(e -> new Property(e.getKey(), e.getValue()))
-            .collect(Collectors.toList()));
+      if (readOnly)
+      {
+         throw new IllegalStateException("cannot serialize a read-only character");
+      }
+      return new ArrayPropertyValue.Entry(toProperties());
+   }
+
+   /**
+    * Visits the top-level fields in their original order, without creating
+    * any properties.
+    *
+    * @param visitor the visitor, non-null
+    * @throws IOException if the visitor throws
+    */
+   void forEachField(FieldVisitor visitor) throws IOException
+   {
+      int unknownIndex = 0;
+      for (byte ordinal : order)
+      {
+         if (ordinal == UNKNOWN)
+         {
+            Property property = unknowns.get(unknownIndex++);
+            visitor.visit(property.getField(), property.getValue());
+         }
+         else
+         {
+            visitor.visit(CHARACTER_FIELDS[ordinal], values[ordinal]);
+         }
+      }
+   }
+
+   // Returns the top-level properties in their original order
+   private List<Property> toProperties()
+   {
+      List<Property> properties = new ArrayList<>(order.length);
+      Iterator<Property> unknownIt = unknowns.iterator();
+      for (byte ordinal : order)
+      {
+         if (ordinal == UNKNOWN)
+         {
+            properties.add(unknownIt.next());
+         }
+         else
+         {
+            properties.add(new Property(CHARACTER_FIELDS[ordinal], values[ordinal]));
+         }
+      }
+      return properties;
    }
 
    @Override
    public String toString()
    {
-      return "Character{" + "map=" + map + '}';
+      return "Character{" + "properties=" + toProperties() + '}';
+   }
+
+   @FunctionalInterface
+   interface FieldVisitor
+   {
+      void visit(PropertyField field, PropertyValue value) throws IOException;
    }
 }
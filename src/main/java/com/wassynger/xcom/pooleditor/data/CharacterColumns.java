@@ -0,0 +1,654 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Read-only, column-oriented copy of the characters of many pools, for
+ * answering questions such as "how many female Rangers from Canada" across a
+ * whole library of pools. Every known field of type INT, BOOL, NAME or STRING
+ * has its own column, with one row per character:
+ * <ul>
+ *    <li>INT fields are stored as plain ints</li>
+ *    <li>NAME and STRING fields are stored as ids into a per-column dictionary
+ *    of distinct values</li>
+ *    <li>BOOL fields are stored as bitsets</li>
+ * </ul>
+ * Filters produce a {@link Selection} of rows, which can be combined and then
+ * counted or grouped. Scans work on 64 rows at a time, and large scans are
+ * split into chunks that run in parallel on the common fork/join pool.
+ *
+ * @author Zach Wassynger
+ */
+public final class CharacterColumns
+{
+   // Number of rows scanned as one task, must be a multiple of 64
+   private static final int CHUNK_SIZE = 64 * 1024;
+   // Stores with fewer rows than this are not worth scanning in parallel
+   private static final int PARALLEL_THRESHOLD = 2 * CHUNK_SIZE;
+   // Largest range of int values that is counted with an array
+   private static final int MAX_COUNT_RANGE = 1 << 16;
+   // Dictionary id used for missing values
+   private static final int MISSING = -1;
+
+   /**
+    * Builds the columns from the characters of the given pools, in order.
+    *
+    * @param pools the given pools, non-null
+    * @return the columns
+    */
+   public static CharacterColumns of(List<CharacterPool> pools)
+   {
+      int size = 0;
+      int[] poolStarts = new int[pools.size()];
+      for (int i = 0; i < pools.size(); i++)
+      {
+         poolStarts[i] = size;
+         size += pools.get(i).getCharacters().size();
+      }
+      Character[] characters = new Character[size];
+      int row = 0;
+      for (CharacterPool pool : pools)
+      {
+         for (Character character : pool.getCharacters())
+         {
+            characters[row++] = character;
+         }
+      }
+      // Columns are independent of each other, so build them in parallel
+      Map<PropertyField, Column> columns = Stream.concat(Arrays.stream(CharacterField.values()),
+            Arrays.stream(AppearanceField.values()))
+            .parallel()
+            .filter(f -> f.getType() != PropertyType.STRUCT && f.getType() != PropertyType.ARRAY)
+            .collect(Collectors.toMap(Function.identity(), f -> createColumn(f, characters)));
+      return new CharacterColumns(new ArrayList<>(pools), poolStarts, characters, columns);
+   }
+
+   private static Column createColumn(PropertyField field, Character[] characters)
+   {
+      switch (field.getType())
+      {
+      case INT:
+         return new IntColumn(field, characters);
+      case BOOL:
+         return new BoolColumn(field, characters);
+      case NAME:
+      case STRING:
+         return new DictionaryColumn(field, characters);
+      default:
+         throw new AssertionError(String.format("unhandled type: %s", field.getType()));
+      }
+   }
+
+   private final List<CharacterPool> pools;
+   // Row of the first character of each pool
+   private final int[] poolStarts;
+   private final Character[] characters;
+   private final Map<PropertyField, Column> columns;
+
+   private CharacterColumns(List<CharacterPool> pools, int[] poolStarts, Character[] characters,
+         Map<PropertyField, Column> columns)
+   {
+      this.pools = pools;
+      this.poolStarts = poolStarts;
+      this.characters = characters;
+      this.columns = columns;
+   }
+
+   /**
+    * Returns the number of rows, which is the total number of characters.
+    *
+    * @return the number of rows
+    */
+   public int size()
+   {
+      return characters.length;
+   }
+
+   public Character getCharacter(int row)
+   {
+      return characters[row];
+   }
+
+   public CharacterPool getPool(int row)
+   {
+      if (row < 0 || row >= characters.length)
+      {
+         throw new IndexOutOfBoundsException(String.format("row %d out of bounds for size %d", row, size()));
+      }
+      int index = Arrays.binarySearch(poolStarts, row);
+      if (index < 0)
+      {
+         index = -index - 2;
+      }
+      // Skip over empty pools that start at the same row
+      while (index + 1 < poolStarts.length && poolStarts[index + 1] == row)
+      {
+         index++;
+      }
+      return pools.get(index);
+   }
+
+   /**
+    * Returns the selection of all rows.
+    *
+    * @return the selection
+    */
+   public Selection all()
+   {
+      Selection selection = new Selection(size());
+      Arrays.fill(selection.words, -1L);
+      selection.clearTail();
+      return selection;
+   }
+
+   /**
+    * Returns the rows where the given INT field has the given value.
+    *
+    * @param field the given field, non-null
+    * @param value the value to match
+    * @return the matching rows
+    * @throws IllegalArgumentException if the field does not have an INT column
+    */
+   public Selection whereEquals(PropertyField field, int value)
+   {
+      IntColumn column = column(field, IntColumn.class);
+      int[] values = column.values;
+      return scan((words, from, to) ->
+      {
+         for (int w = from; w < to; w++)
+         {
+            int base = w << 6;
+            int end = Math.min(base + 64, values.length);
+            long bits = 0;
+            for (int row = base; row < end; row++)
+            {
+               bits |= (values[row] == value ? 1L : 0L) << (row - base);
+            }
+            words[w] = bits & column.present[w];
+         }
+      });
+   }
+
+   /**
+    * Returns the rows where the value of the given INT field matches the
+    * predicate. Rows without a value never match.
+    *
+    * @param field     the given field, non-null
+    * @param predicate the predicate to match, non-null
+    * @return the matching rows
+    * @throws IllegalArgumentException if the field does not have an INT column
+    */
+   public Selection where(PropertyField field, IntPredicate predicate)
+   {
+      IntColumn column = column(field, IntColumn.class);
+      int[] values = column.values;
+      return scan((words, from, to) ->
+      {
+         for (int w = from; w < to; w++)
+         {
+            int base = w << 6;
+            int end = Math.min(base + 64, values.length);
+            long bits = 0;
+            for (int row = base; row < end; row++)
+            {
+               bits |= (predicate.test(values[row]) ? 1L : 0L) << (row - base);
+            }
+            words[w] = bits & column.present[w];
+         }
+      });
+   }
+
+   /**
+    * Returns the rows where the given NAME or STRING field has the given value.
+    * The value is looked up in the dictionary of the column once, after which
+    * only ids are compared.
+    *
+    * @param field the given field, non-null
+    * @param value the value to match, non-null
+    * @return the matching rows
+    * @throws IllegalArgumentException if the field does not have a NAME or
+    *                                  STRING column
+    */
+   public Selection whereEquals(PropertyField field, String value)
+   {
+      DictionaryColumn column = column(field, DictionaryColumn.class);
+      Integer id = column.ids.get(value);
+      if (id == null)
+      {
+         return new Selection(size());
+      }
+      int target = id;
+      int[] values = column.values;
+      return scan((words, from, to) ->
+      {
+         for (int w = from; w < to; w++)
+         {
+            int base = w << 6;
+            int end = Math.min(base + 64, values.length);
+            long bits = 0;
+            for (int row = base; row < end; row++)
+            {
+               bits |= (values[row] == target ? 1L : 0L) << (row - base);
+            }
+            words[w] = bits;
+         }
+      });
+   }
+
+   /**
+    * Returns the rows where the given BOOL field has the given value. Rows
+    * without a value never match.
+    *
+    * @param field the given field, non-null
+    * @param value the value to match
+    * @return the matching rows
+    * @throws IllegalArgumentException if the field does not have a BOOL column
+    */
+   public Selection whereEquals(PropertyField field, boolean value)
+   {
+      BoolColumn column = column(field, BoolColumn.class);
+      long flip = value ? 0L : -1L;
+      return scan((words, from, to) ->
+      {
+         for (int w = from; w < to; w++)
+         {
+            words[w] = (column.bits[w] ^ flip) & column.present[w];
+         }
+      });
+   }
+
+   /**
+    * Counts the selected rows by the value of the given field. Rows without a
+    * value are not counted.
+    *
+    * @param field     the field to group by, non-null
+    * @param selection the rows to count, non-null
+    * @return the counts by display value, ordered from most to least common
+    * @throws IllegalArgumentException if the field does not have a column
+    */
+   public Map<String, Integer> countBy(PropertyField field, Selection selection)
+   {
+      checkSelection(selection);
+      Column column = columns.get(field);
+      if (column == null)
+      {
+         throw new IllegalArgumentException(String.format("no column for field %s", field.getName()));
+      }
+      Map<String, Integer> counts = column.countBy(this, selection);
+      List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+      entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+      Map<String, Integer> sorted = new LinkedHashMap<>();
+      for (Map.Entry<String, Integer> entry : entries)
+      {
+         sorted.put(entry.getKey(), entry.getValue());
+      }
+      return sorted;
+   }
+
+   private <T extends Column> T column(PropertyField field, Class<T> type)
+   {
+      Column column = columns.get(field);
+      if (!type.isInstance(column))
+      {
+         throw new IllegalArgumentException(
+               String.format("field %s of type %s cannot be scanned this way", field.getName(), field.getType()));
+      }
+      return type.cast(column);
+   }
+
+   private void checkSelection(Selection selection)
+   {
+      if (selection.size != size())
+      {
+         throw new IllegalArgumentException(
+               String.format("selection of %d rows does not match %d rows", selection.size, size()));
+      }
+   }
+
+   // Fills the words of a new selection, splitting the words into chunks that
+   // are scanned in parallel if there are enough rows
+   private Selection scan(WordScan scan)
+   {
+      Selection selection = new Selection(size());
+      long[] words = selection.words;
+      forEachChunk(chunk ->
+      {
+         int from = chunk * (CHUNK_SIZE / 64);
+         scan.fill(words, from, Math.min(from + CHUNK_SIZE / 64, words.length));
+      });
+      return selection;
+   }
+
+   private void forEachChunk(IntConsumer action)
+   {
+      int numChunks = (size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      IntStream chunks = IntStream.range(0, numChunks);
+      (size() >= PARALLEL_THRESHOLD ? chunks.parallel() : chunks).forEach(action);
+   }
+
+   // Counts the selected rows of each value, where values are in [0, range)
+   private int[] countValues(int[] values, int offset, int range, Selection selection)
+   {
+      int numChunks = (size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      int[][] partials = new int[numChunks][];
+      forEachChunk(chunk ->
+      {
+         int[] counts = new int[range];
+         int from = chunk * (CHUNK_SIZE / 64);
+         int to = Math.min(from + CHUNK_SIZE / 64, selection.words.length);
+         for (int w = from; w < to; w++)
+         {
+            long bits = selection.words[w];
+            while (bits != 0)
+            {
+               int row = (w << 6) + Long.numberOfTrailingZeros(bits);
+               counts[values[row] - offset]++;
+               bits &= bits - 1;
+            }
+         }
+         partials[chunk] = counts;
+      });
+      int[] counts = new int[range];
+      for (int[] partial : partials)
+      {
+         for (int i = 0; i < range; i++)
+         {
+            counts[i] += partial[i];
+         }
+      }
+      return counts;
+   }
+
+   @FunctionalInterface
+   private interface WordScan
+   {
+      void fill(long[] words, int from, int to);
+   }
+
+   /**
+    * Set of rows of a {@link CharacterColumns}, stored as a bitset. Selections
+    * are immutable, and combining them creates a new selection.
+    */
+   public static final class Selection
+   {
+      private final int size;
+      private final long[] words;
+
+      private Selection(int size)
+      {
+         this.size = size;
+         this.words = new long[(size + 63) >>> 6];
+      }
+
+      public Selection and(Selection other)
+      {
+         checkSize(other);
+         Selection result = new Selection(size);
+         for (int w = 0; w < words.length; w++)
+         {
+            result.words[w] = words[w] & other.words[w];
+         }
+         return result;
+      }
+
+      public Selection or(Selection other)
+      {
+         checkSize(other);
+         Selection result = new Selection(size);
+         for (int w = 0; w < words.length; w++)
+         {
+            result.words[w] = words[w] | other.words[w];
+         }
+         return result;
+      }
+
+      public Selection not()
+      {
+         Selection result = new Selection(size);
+         for (int w = 0; w < words.length; w++)
+         {
+            result.words[w] = ~words[w];
+         }
+         result.clearTail();
+         return result;
+      }
+
+      public boolean contains(int row)
+      {
+         return (words[row >>> 6] & (1L << row)) != 0;
+      }
+
+      /**
+       * Returns the number of selected rows.
+       *
+       * @return the number of rows
+       */
+      public int count()
+      {
+         int count = 0;
+         for (long word : words)
+         {
+            count += Long.bitCount(word);
+         }
+         return count;
+      }
+
+      /**
+       * Returns the selected rows in ascending order.
+       *
+       * @return the rows
+       */
+      public IntStream rows()
+      {
+         return IntStream.range(0, words.length).flatMap(w ->
+         {
+            int[] rows = new int[Long.bitCount(words[w])];
+            long bits = words[w];
+            for (int i = 0; bits != 0; i++)
+            {
+               rows[i] = (w << 6) + Long.numberOfTrailingZeros(bits);
+               bits &= bits - 1;
+            }
+            return IntStream.of(rows);
+         });
+      }
+
+      private void checkSize(Selection other)
+      {
+         if (other.size != size)
+         {
+            throw new IllegalArgumentException(
+                  String.format("selection of %d rows does not match %d rows", other.size, size));
+         }
+      }
+
+      // Clears the bits past the last row
+      private void clearTail()
+      {
+         if ((size & 63) != 0)
+         {
+            words[words.length - 1] &= (1L << size) - 1;
+         }
+      }
+
+      @Override
+      public String toString()
+      {
+         return "Selection{" + "size=" + size + ", count=" + count() + '}';
+      }
+   }
+
+   private abstract static class Column
+   {
+      abstract Map<String, Integer> countBy(CharacterColumns columns, Selection selection);
+   }
+
+   private static final class IntColumn extends Column
+   {
+      private final int[] values;
+      private final long[] present;
+      private final int min;
+      private final int max;
+
+      private IntColumn(PropertyField field, Character[] characters)
+      {
+         values = new int[characters.length];
+         present = new long[(characters.length + 63) >>> 6];
+         int min = Integer.MAX_VALUE;
+         int max = Integer.MIN_VALUE;
+         for (int row = 0; row < characters.length; row++)
+         {
+            PropertyValue value = characters[row].get(field);
+            if (value instanceof IntPropertyValue)
+            {
+               int v = ((IntPropertyValue) value).getValue();
+               values[row] = v;
+               present[row >>> 6] |= 1L << row;
+               min = Math.min(min, v);
+               max = Math.max(max, v);
+            }
+         }
+         this.min = min;
+         this.max = max;
+      }
+
+      @Override
+      Map<String, Integer> countBy(CharacterColumns columns, Selection selection)
+      {
+         Selection rows = new Selection(selection.size);
+         for (int w = 0; w < rows.words.length; w++)
+         {
+            rows.words[w] = selection.words[w] & present[w];
+         }
+         Map<String, Integer> counts = new HashMap<>();
+         if (min > max)
+         {
+            // No values at all
+            return counts;
+         }
+         if ((long) max - min < MAX_COUNT_RANGE)
+         {
+            int[] byValue = columns.countValues(values, min, max - min + 1, rows);
+            for (int i = 0; i < byValue.length; i++)
+            {
+               if (byValue[i] > 0)
+               {
+                  counts.put(Integer.toString(min + i), byValue[i]);
+               }
+            }
+         }
+         else
+         {
+            rows.rows().forEach(row -> counts.merge(Integer.toString(values[row]), 1, Integer::sum));
+         }
+         return counts;
+      }
+   }
+
+   private static final class DictionaryColumn extends Column
+   {
+      private final int[] values;
+      private final List<String> dictionary;
+      private final Map<String, Integer> ids;
+
+      private DictionaryColumn(PropertyField field, Character[] characters)
+      {
+         values = new int[characters.length];
+         dictionary = new ArrayList<>();
+         ids = new HashMap<>();
+         for (int row = 0; row < characters.length; row++)
+         {
+            PropertyValue value = characters[row].get(field);
+            String str = value != null ? value.getDisplayValue() : null;
+            if (str == null)
+            {
+               values[row] = MISSING;
+               continue;
+            }
+            Integer id = ids.get(str);
+            if (id == null)
+            {
+               id = dictionary.size();
+               dictionary.add(str);
+               ids.put(str, id);
+            }
+            values[row] = id;
+         }
+      }
+
+      @Override
+      Map<String, Integer> countBy(CharacterColumns columns, Selection selection)
+      {
+         // Shift ids by one, so missing values are counted separately
+         int[] byId = columns.countValues(values, MISSING, dictionary.size() + 1, selection);
+         Map<String, Integer> counts = new HashMap<>();
+         for (int id = 0; id < dictionary.size(); id++)
+         {
+            if (byId[id + 1] > 0)
+            {
+               counts.put(dictionary.get(id), byId[id + 1]);
+            }
+         }
+         return counts;
+      }
+   }
+
+   private static final class BoolColumn extends Column
+   {
+      private final long[] bits;
+      private final long[] present;
+
+      private BoolColumn(PropertyField field, Character[] characters)
+      {
+         bits = new long[(characters.length + 63) >>> 6];
+         present = new long[bits.length];
+         for (int row = 0; row < characters.length; row++)
+         {
+            PropertyValue value = characters[row].get(field);
+            if (value instanceof BoolPropertyValue)
+            {
+               present[row >>> 6] |= 1L << row;
+               if (((BoolPropertyValue) value).getValue())
+               {
+                  bits[row >>> 6] |= 1L << row;
+               }
+            }
+         }
+      }
+
+      @Override
+      Map<String, Integer> countBy(CharacterColumns columns, Selection selection)
+      {
+         int numTrue = 0;
+         int numFalse = 0;
+         for (int w = 0; w < bits.length; w++)
+         {
+            long selected = selection.words[w] & present[w];
+            numTrue += Long.bitCount(selected & bits[w]);
+            numFalse += Long.bitCount(selected & ~bits[w]);
+         }
+         Map<String, Integer> counts = new HashMap<>();
+         if (numTrue > 0)
+         {
+            counts.put("true", numTrue);
+         }
+         if (numFalse > 0)
+         {
+            counts.put("false", numFalse);
+         }
+         return counts;
+      }
+   }
+}
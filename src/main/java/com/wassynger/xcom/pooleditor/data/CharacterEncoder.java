@@ -0,0 +1,80 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+
+/**
+ * Encodes characters one at a time, via an {@link EntryTemplate} of the layout
+ * shared by most characters of a pool. The template is compiled from the first
+ * character, and characters with a different layout are encoded through their
+ * entries instead. If several characters in a row have a different layout, a
+ * new template is compiled from the next one.
+ * <p>
+ * Each character is first prepared, which returns its size, and then encoded.
+ * An encoder must only be used by one thread at a time.
+ *
+ * @author Zach Wassynger
+ */
+final class CharacterEncoder
+{
+   // Number of characters in a row that do not match the template before it
+   // is replaced
+   private static final int MAX_MISSES = 8;
+
+   private EntryTemplate template;
+   private int misses;
+   // The prepared character, as an entry if it does not match the template
+   private boolean prepared;
+   private ArrayPropertyValue.Entry entry;
+
+   /**
+    * Prepares the given character to be encoded.
+    *
+    * @param character the given character, non-null
+    * @return the size of the encoded character in bytes
+    * @throws IllegalStateException if the character is read-only
+    */
+   int prepare(Character character)
+   {
+      if (misses >= MAX_MISSES || (template == null && misses == 0))
+      {
+         template = EntryTemplate.compile(character).orElse(template);
+         misses = 0;
+      }
+      prepared = true;
+      int length = template != null ? template.bind(character) : -1;
+      if (length >= 0)
+      {
+         misses = 0;
+         entry = null;
+         return length;
+      }
+      misses++;
+      entry = character.toEntry();
+      return entry.computeLength();
+   }
+
+   /**
+    * Encodes the character that was last prepared.
+    *
+    * @param encoder the encoder, non-null
+    * @throws IOException           if some error occurred while writing
+    * @throws IllegalStateException if no character is prepared
+    */
+   void encode(PropertyEncoder encoder) throws IOException
+   {
+      if (!prepared)
+      {
+         throw new IllegalStateException("no character prepared");
+      }
+      prepared = false;
+      if (entry != null)
+      {
+         entry.write(encoder);
+         entry = null;
+      }
+      else
+      {
+         template.encode(encoder);
+      }
+   }
+}
@@ -1,21 +1,171 @@
 package com.wassynger.xcom.pooleditor.data;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class CharacterPool
 {
+   /**
+    * Creates a pool from the top level properties read from the given file.
+    * Returns null if the 'CharacterPool' array is not present.
+    *
+    * @param path       the file the properties were read from, non-null
+    * @param properties the top level properties
+    * @return the pool, or null if there is no pool data
+    */
+   static CharacterPool fromProperties(Path path, List<Property> properties)
+   {
+      return fromProperties(path, properties, EntryIndex::characters, false);
+   }
+
+   /**
+    * Creates a pool from the top level properties read from the given file.
+    * Returns null if the 'CharacterPool' array is not present. If the
+    * characters are indexed instead of decoded, the given function is used to
+    * create the characters from the index.
+    *
+    * @param path         the file the properties were read from, non-null
+    * @param properties   the top level properties
+    * @param indexDecoder creates the characters from an index, non-null
+    * @param readOnly     whether the characters only hold some of their data
+    * @return the pool, or null if there is no pool data
+    */
+   static CharacterPool fromProperties(Path path, List<Property> properties,
+         Function<EntryIndex, List<Character>> indexDecoder, boolean readOnly)
+   {
+      ArrayPropertyValue charPoolArrayProperty = properties.stream()
+            .filter(Objects::nonNull)
+            .filter(p -> "CharacterPool".equals(p.getField().getName()))
+            .map(p -> ((ArrayPropertyValue) p.getValue()))
+            .findFirst()
+            .orElse(null);
+      if (charPoolArrayProperty == null)
+      {
+         return null;
+      }
+      // Remove trailing extension
+      String name = path.getFileName().toString().replaceFirst("\\..+$", "");
+      String filePath = charPoolArrayProperty.getHeader("PoolFileName")
+            .map(p -> p.getValue().getDisplayValue())
+            .orElse(name);
+      List<Character> characters = charPoolArrayProperty.getIndex()
+            .map(indexDecoder)
+            .orElseGet(() -> charPoolArrayProperty.getEntries()
+                  .stream()
+                  .map(ArrayPropertyValue.Entry::getProperties)
+                  .map(p -> Character.fromProperties(p, readOnly))
+                  .collect(Collectors.toList()));
+      return new CharacterPool(path, name, filePath, characters, readOnly);
+   }
+
    private final Path path;
    private final String name;
    private final String fileName;
    private final List<Character> characters;
+   private final boolean readOnly;
 
    public CharacterPool(Path path, String name, String fileName, List<Character> characters)
+   {
+      this(path, name, fileName, characters, false);
+   }
+
+   private CharacterPool(Path path, String name, String fileName, List<Character> characters, boolean readOnly)
    {
       this.path = path;
       this.name = name;
       this.fileName = fileName;
       this.characters = characters;
+      this.readOnly = readOnly;
+   }
+
+   /**
+    * Creates the top level property that holds this pool when serialized.
+    *
+    * @return the 'CharacterPool' array property
+    * @throws IllegalStateException if the pool is read-only
+    */
+   Property toProperty()
+   {
+      return new Property(getArrayField(), new ArrayPropertyValue(toHeaders(),
+            characters.stream().map(Character::toEntry).collect(Collectors.toList())));
+   }
+
+   /**
+    * Returns the field of the top level property that holds this pool when
+    * serialized.
+    *
+    * @return the 'CharacterPool' array field
+    */
+   static PropertyField getArrayField()
+   {
+      return PropertyField.get("CharacterPool", PropertyType.ARRAY);
+   }
+
+   /**
+    * Creates the headers of the array that holds this pool when serialized.
+    *
+    * @return the headers
+    */
+   List<Property> toHeaders()
+   {
+      return toHeaders(fileName);
+   }
+
+   static List<Property> toHeaders(String fileName)
+   {
+      return Collections.singletonList(
+            new Property(PropertyField.get("PoolFileName", PropertyType.STRING), new StringPropertyValue(fileName)));
+   }
+
+   /**
+    * Writes the start of a serialized pool, which is everything that comes
+    * before the first character.
+    *
+    * @param writer        the writer, non-null
+    * @param headers       the headers of the pool array, non-null
+    * @param numCharacters the number of characters
+    * @throws IOException if some error occurred while writing
+    */
+   static void writeStart(PropertyWriter writer, List<Property> headers, int numCharacters) throws IOException
+   {
+      PropertyField field = getArrayField();
+      writer.write(0xFFFFFFFF);
+      writer.write(field.getName());
+      writer.writePadding();
+      writer.write(field.getType().getName());
+      writer.writePadding();
+      ArrayPropertyValue.writeStart(writer, headers, numCharacters);
+   }
+
+   /**
+    * Computes the size of the start of a serialized pool.
+    *
+    * @param headers the headers of the pool array, non-null
+    * @return the size in bytes
+    * @see #writeStart(PropertyWriter, List, int)
+    */
+   static int computeStartLength(List<Property> headers)
+   {
+      PropertyField field = getArrayField();
+      // header + name + padding + type + padding + size + padding + num entries
+      int len = Integer.BYTES + Property.computeStringNumBytes(field.getName()) + Integer.BYTES +
+                Property.computeStringNumBytes(field.getType().getName()) + Integer.BYTES + Integer.BYTES +
+                Integer.BYTES + Integer.BYTES;
+      if (!headers.isEmpty())
+      {
+         // headers + 'None' + num entries
+         len += Property.NONE_NUM_BYTES + Integer.BYTES;
+         for (Property header : headers)
+         {
+            len += header.computeLength();
+         }
+      }
+      return len;
    }
 
    public Path getPath()
@@ -37,4 +187,15 @@ public class CharacterPool
    {
       return characters;
    }
+
+   /**
+    * Returns whether this pool was read with only some of its fields, in which
+    * case it must not be written back to a file.
+    *
+    * @return true if the pool is read-only
+    */
+   public boolean isReadOnly()
+   {
+      return readOnly;
+   }
 }
@@ -2,16 +2,74 @@ package com.wassynger.xcom.pooleditor.data;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Set;
 
 public interface CharacterPoolReader extends AutoCloseable
 {
    static CharacterPoolReader open(Path path) throws IOException
    {
-      return new CharacterPoolReaderImpl(path);
+      return open(path, Mode.PARALLEL);
+   }
+
+   static CharacterPoolReader open(Path path, Mode mode) throws IOException
+   {
+      switch (mode)
+      {
+      case STREAM:
+         return new CharacterPoolReaderImpl(path);
+      case MAPPED:
+      case LAZY:
+      case PARALLEL:
+         return new MappedCharacterPoolReader(path, mode);
+      default:
+         throw new AssertionError(String.format("unhandled mode: %s", mode));
+      }
    }
 
    CharacterPool read() throws IOException;
 
+   /**
+    * Reads in the character pool, only decoding the given fields of each
+    * character. All other data is skipped over without being decoded.
+    * Appearance fields may be requested directly, without requesting the
+    * entire appearance struct. The returned pool and its characters are
+    * read-only, and cannot be written back to a file.
+    *
+    * @param fields the fields to decode, non-null
+    * @return the parsed, read-only character pool
+    * @throws IOException if some error occurred while reading the file
+    */
+   CharacterPool read(Set<? extends PropertyField> fields) throws IOException;
+
    @Override
    void close() throws IOException;
+
+   /**
+    * The supported strategies for reading a pool file.
+    */
+   enum Mode
+   {
+      /**
+       * Reads the file sequentially through an input stream.
+       */
+      STREAM,
+      /**
+       * Loads the whole file into a little endian buffer (memory mapped for
+       * large files) and decodes it via absolute reads.
+       */
+      MAPPED,
+      /**
+       * Loads the file onto the heap, and only scans for the location of each
+       * character. Characters are decoded when first accessed, and may be
+       * dropped again under memory pressure, so the same character may be
+       * returned as different instances over time.
+       */
+      LAZY,
+      /**
+       * Loads the file like {@link #MAPPED} and scans it like {@link #LAZY},
+       * then decodes all characters up front in parallel. Small pools are
+       * decoded sequentially, like {@link #MAPPED}.
+       */
+      PARALLEL
+   }
 }
@@ -1,41 +1,35 @@
 package com.wassynger.xcom.pooleditor.data;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
- * Reads in {@link CharacterPool} and associated properties from a file.
+ * Reads in {@link CharacterPool} and associated properties from a file. The
+ * file is read sequentially through a {@link PropertyParser}.
  *
  * @author Zach Wassynger
  */
 class CharacterPoolReaderImpl implements CharacterPoolReader
 {
+   // Upper bound on presizing an array from its element count, since the count
+   // is read before any of the elements are known to exist
+   private static final int MAX_PRESIZE = 4096;
+
    private final Path path;
-   private final String fileName;
-   private final InputStream is;
-   // Contains the start positions of all tracked blobs
-   private final Deque<Integer> startPos;
+   private final PropertyParser parser;
 
-   private int pos = 0;
-   private boolean hasRemaining = true;
+   // Fields to decode for the character pool entries, or null for all fields
+   private Set<? extends PropertyField> projection = null;
+   private boolean projectsAppearance = false;
 
    CharacterPoolReaderImpl(Path path) throws IOException
    {
       this.path = Objects.requireNonNull(path);
-      // Remove trailing extension
-      this.fileName = path.getFileName().toString().replaceFirst("\\..+$", "");
-      this.is = Files.newInputStream(path);
-      this.startPos = new ArrayDeque<>();
+      this.parser = PropertyParser.open(path);
    }
 
    /**
@@ -47,298 +41,137 @@ class CharacterPoolReaderImpl implements CharacterPoolReader
    @Override
    public CharacterPool read() throws IOException
    {
-      readHeader();
-      Property property = readProperty();
-      List<Property> properties = new ArrayList<>();
-      while (hasRemaining)
-      {
-         properties.add(property);
-         property = readProperty();
-      }
-      properties.add(property);
-      assert startPos.isEmpty();
-      ArrayPropertyValue charPoolArrayProperty = properties.stream()
-            .filter(p -> "CharacterPool".equals(p.getField().getName()))
-            .map(p -> ((ArrayPropertyValue) p.getValue()))
-            .findFirst()
-            .orElse(null);
-      if (charPoolArrayProperty == null)
-      {
-         return null;
-      }
-      String filePath = charPoolArrayProperty.getHeader("PoolFileName")
-            .map(p -> p.getValue().getDisplayValue())
-            .orElse(fileName);
-      List<Character> characters = charPoolArrayProperty.getEntries()
-            .stream()
-            .map(ArrayPropertyValue.Entry::getProperties)
-            .map(Character::fromProperties)
-            .collect(Collectors.toList());
-      return new CharacterPool(path, fileName, filePath, characters);
+      return CharacterPool.fromProperties(path, readAll());
    }
 
-   private void readHeader() throws IOException
+   /**
+    * Reads in the character pool from the internal file, only decoding the
+    * given fields.
+    *
+    * @param fields the fields to decode, non-null
+    * @return the parsed, read-only character pool
+    * @throws IOException if some error occurred while reading the file
+    */
+   @Override
+   public CharacterPool read(Set<? extends PropertyField> fields) throws IOException
    {
-      readAndCheckValue(0xFFFFFFFF);
+      this.projection = Objects.requireNonNull(fields);
+      this.projectsAppearance = fields.stream().anyMatch(AppearanceField.class::isInstance);
+      return CharacterPool.fromProperties(path, readAll(), EntryIndex::characters, true);
    }
 
-   public Property readProperty() throws IOException
+   private List<Property> readAll() throws IOException
    {
-      if (!hasRemaining)
-      {
-         return null;
-      }
-      try
-      {
-         String name = readString();
-         readPadding();
-         if ("None".equals(name))
-         {
-            return null;
-         }
-         PropertyType type = PropertyType.get(readString());
-         readPadding();
-         PropertyValue value = readValue(name, type);
-         return new Property(PropertyField.get(name, type), value);
-      }
-      catch (IOException e)
+      List<Property> properties = new ArrayList<>();
+      for (PropertyParser.Event event = parser.next(); event != PropertyParser.Event.END_DOCUMENT;
+           event = parser.next())
       {
-         if (!hasRemaining)
+         // Ignore any stray 'None' at the top level
+         if (event == PropertyParser.Event.START_PROPERTY)
          {
-            return null;
+            properties.add(readProperty());
          }
-         throw e;
       }
+      return properties;
    }
 
-   private PropertyValue readValue(String name, PropertyType type) throws IOException
+   // Reads the rest of the property that the parser just started
+   private Property readProperty() throws IOException
    {
-      switch (type)
+      PropertyField field = parser.getField();
+      PropertyParser.Event event = parser.next();
+      switch (event)
       {
-      case BOOL:
-         return readBoolValue();
-      case INT:
-         return readIntValue();
-      case STRING:
-         return readStringValue();
-      case NAME:
-         return readNameValue();
-      case STRUCT:
-         return readStructValue();
-      case ARRAY:
-         // Don't know why this is, but the character pool array also contains some
-         // information before the array of characters. For now keep this hardcoded
-         return readArrayValue("CharacterPool".equals(name));
+      case VALUE:
+         return new Property(field, parser.getValue());
+      case START_STRUCT:
+         String structType = parser.getStructType();
+         return new Property(field, new StructPropertyValue(structType, readProperties()));
+      case START_ARRAY:
+         return new Property(field, readArrayValue(parser.getElementCount(), "CharacterPool".equals(field.getName())));
       default:
-         throw new AssertionError(String.format("unhandled type for '%s': %s", name, type));
+         throw new IOException(
+               String.format("pos %d: unexpected %s for '%s'", parser.getPosition(), event, field.getName()));
       }
    }
 
-   private PropertyValue readBoolValue() throws IOException
+   // Reads properties until the end of the current section
+   private List<Property> readProperties() throws IOException
    {
-      readAndCheckValue(0);
-      readPadding();
-      return new BoolPropertyValue(readBool());
-   }
-
-   private PropertyValue readIntValue() throws IOException
-   {
-      readAndCheckValue(Integer.BYTES);
-      readPadding();
-      return new IntPropertyValue(readInt());
-   }
-
-   private PropertyValue readStringValue() throws IOException
-   {
-      // string length + 4 (padding)
-      int size = readInt();
-      readPadding();
-      markStartBlob();
-      String str = readString();
-      checkBlobSize(size);
-      return new StringPropertyValue(str);
-   }
-
-   private PropertyValue readNameValue() throws IOException
-   {
-      // string length + 8 (padding and unknown int value)
-      int size = readInt();
-      readPadding();
-      markStartBlob();
-      String str = readString();
-      int num = readInt();
-      checkBlobSize(size);
-      return new NamePropertyValue(str, num);
-   }
-
-   private PropertyValue readStructValue() throws IOException
-   {
-      // length of entries
-      int size = readInt();
-      readPadding();
-      String structType = readString();
-      readPadding();
-      // Size of struct starts after the class name and padding
-      markStartBlob();
-      List<Property> entries = new ArrayList<>();
-      Property property = readProperty();
-      while (property != null)
+      List<Property> properties = new ArrayList<>();
+      PropertyParser.Event event = parser.next();
+      while (event == PropertyParser.Event.START_PROPERTY)
+      {
+         properties.add(readProperty());
+         event = parser.next();
+      }
+      if (event != PropertyParser.Event.END)
       {
-         entries.add(property);
-         property = readProperty();
+         throw new IOException(String.format("pos %d: unexpected %s", parser.getPosition(), event));
       }
-      checkBlobSize(size);
-      return new StructPropertyValue(structType, entries);
+      return properties;
    }
 
-   private PropertyValue readArrayValue(boolean parseHeaders) throws IOException
+   // Reads the projected properties until the end of the current section,
+   // adding them to the given list
+   private List<Property> readProjectedProperties(List<Property> properties) throws IOException
    {
-      // size is 4 for character pool, but otherwise is the actual data len?
-      // TODO figure out how to handle better
-      int size = readInt();
-      readPadding();
-      int numElements = readInt();
-      Property property;
-      List<Property> headers = new ArrayList<>();
-      if (parseHeaders)
+      PropertyParser.Event event = parser.next();
+      while (event == PropertyParser.Event.START_PROPERTY)
       {
-         property = readProperty();
-         while (property != null)
+         PropertyField field = parser.getField();
+         if (projection.contains(field))
          {
-            headers.add(property);
-            property = readProperty();
+            properties.add(readProperty());
          }
-         // number of elements is repeated after the initial section
-         int numElements2 = readInt();
-         if (numElements != numElements2)
+         else if (field == CharacterField.APPEARANCE && projectsAppearance && parser.getType() == PropertyType.STRUCT)
          {
-            throw new IOException(
-                  String.format("pos %d: expected num elements to be equal: %d != %d", pos - Integer.BYTES, numElements,
-                        numElements2));
+            // Pull the requested fields out of the struct
+            parser.next();
+            readProjectedProperties(properties);
          }
-      }
-      List<ArrayPropertyValue.Entry> entries = new ArrayList<>();
-      for (int i = 0; i < numElements; i++)
-      {
-         property = readProperty();
-         List<Property> properties = new ArrayList<>();
-         while (property != null)
+         else
          {
-            properties.add(property);
-            property = readProperty();
+            parser.skipValue();
          }
-         entries.add(new ArrayPropertyValue.Entry(properties));
+         event = parser.next();
       }
-      return new ArrayPropertyValue(headers, entries);
-   }
-
-   public boolean readBool() throws IOException
-   {
-      int actual = is.read();
-      if (actual == -1)
+      if (event != PropertyParser.Event.END)
       {
-         hasRemaining = false;
-         throw new IOException(String.format("pos %d: missing data for bool", pos));
+         throw new IOException(String.format("pos %d: unexpected %s", parser.getPosition(), event));
       }
-      pos++;
-      return actual != 0;
+      return properties;
    }
 
-   public int readInt() throws IOException
+   private ArrayPropertyValue readArrayValue(int numElements, boolean isPool) throws IOException
    {
-      int len = Integer.BYTES;
-      byte[] data = new byte[len];
-      int actual = is.read(data);
-      if (actual != len)
-      {
-         if (actual == -1)
-         {
-            hasRemaining = false;
-         }
-         throw new IOException(String.format("pos %d: missing data for int, got %d", pos, actual));
-      }
-      pos += actual;
-      return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt();
-   }
-
-   public String readString() throws IOException
-   {
-      int len = readInt();
-      if (len == 0)
-      {
-         // Nothing else to read
-         return "";
-      }
-      byte[] data = new byte[len];
-      int actual = is.read(data);
-      if (actual != len)
+      List<Property> headers = new ArrayList<>();
+      List<ArrayPropertyValue.Entry> entries = new ArrayList<>(Math.min(numElements, MAX_PRESIZE));
+      for (PropertyParser.Event event = parser.next(); event != PropertyParser.Event.END_ARRAY;
+           event = parser.next())
       {
-         if (actual == -1)
+         switch (event)
          {
-            hasRemaining = false;
+         case START_PROPERTY:
+            headers.add(readProperty());
+            break;
+         case END:
+            // End of headers
+            break;
+         case START_ARRAY_ENTRY:
+            entries.add(new ArrayPropertyValue.Entry(
+                  isPool && projection != null ? readProjectedProperties(new ArrayList<>()) : readProperties()));
+            break;
+         default:
+            throw new IOException(String.format("pos %d: unexpected %s in array", parser.getPosition(), event));
          }
-         throw new IOException(
-               String.format("pos %d: missing data for string; expected %d bytes, got %d", pos, len, actual));
-      }
-      pos += actual;
-      if (data[len - 1] != '\0')
-      {
-         throw new IOException(
-               String.format("pos %d: expected '\\0' to end string, got %c", pos - Byte.BYTES, data[len - 1]));
-      }
-      return new String(data, 0, len - 1, Property.STRING_CHARSET);
-   }
-
-   public void readPadding() throws IOException
-   {
-      int value = readInt();
-      if (value != 0)
-      {
-         throw new IOException(String.format("pos %d: expected padding, got 0x%08X", pos - Integer.BYTES, value));
       }
+      return new ArrayPropertyValue(headers, entries);
    }
 
    @Override
    public void close() throws IOException
    {
-      is.close();
-   }
-
-   private void readAndCheckValue(int expected) throws IOException
-   {
-      int actual = readInt();
-      if (actual != expected)
-      {
-         throw new IOException(
-               String.format("pos %d: unexpected int value 0x%08X, expected 0x%08X", pos - Integer.BYTES, actual,
-                     expected));
-      }
-   }
-
-   /**
-    * Marks the start of a blob.
-    *
-    * @see #checkBlobSize(int)
-    */
-   private void markStartBlob()
-   {
-      startPos.push(pos);
-   }
-
-   /**
-    * Marks the end of a blob and asserts that the size of the blob matches what
-    * is expected. Throws an exception if it does not match.
-    *
-    * @param expected the expected size
-    * @see #markStartBlob()
-    */
-   private void checkBlobSize(int expected)
-   {
-      int actual = pos - startPos.pop();
-      if (actual != expected)
-      {
-         throw new IllegalArgumentException(
-               String.format("pos %d: unexpected size '%d', expected '%d'", pos, actual, expected));
-      }
+      parser.close();
    }
 }
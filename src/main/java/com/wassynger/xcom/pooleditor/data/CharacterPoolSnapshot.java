@@ -0,0 +1,335 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact binary snapshot of a decoded {@link CharacterPool}. Every string is
+ * stored once in a dictionary at the start of the snapshot and referred to by
+ * index afterwards, so reading a snapshot back is much cheaper than parsing
+ * the original pool file. The location of each character within the original
+ * file is kept as well. Snapshots record a format version, and snapshots of
+ * any other version are rejected.
+ *
+ * @author Zach Wassynger
+ */
+public final class CharacterPoolSnapshot
+{
+   /**
+    * The current version of the snapshot format. Must be incremented whenever
+    * the format changes.
+    */
+   public static final int FORMAT_VERSION = 3;
+
+   private static final int MAGIC = 0x58435053;
+   private static final Charset CHARSET = StandardCharsets.UTF_8;
+   private static final PropertyType[] TYPES = PropertyType.values();
+   // Dictionary index used for null strings
+   private static final int NULL_STRING = -1;
+
+   /**
+    * Writes a snapshot of the given pool to the stream. The stream is not
+    * closed.
+    *
+    * @param pool the given pool, non-null
+    * @param os   the stream to write to, non-null
+    * @throws IOException              if some error occurred while writing
+    * @throws IllegalArgumentException if the pool is read-only
+    */
+   public static void write(CharacterPool pool, OutputStream os) throws IOException
+   {
+      if (pool.isReadOnly())
+      {
+         throw new IllegalArgumentException(String.format("cannot snapshot read-only pool '%s'", pool.getName()));
+      }
+      // The dictionary is filled in while writing the body, so buffer the body
+      Encoder encoder = new Encoder();
+      encoder.writeString(pool.getName());
+      encoder.writeString(pool.getFileName());
+      PoolSource source = pool.getCharacters()
+            .stream()
+            .map(Character::getSource)
+            .filter(Objects::nonNull)
+            .findFirst()
+            .orElse(null);
+      encoder.out.writeBoolean(source != null);
+      if (source != null)
+      {
+         encoder.out.writeLong(source.getSize());
+         encoder.out.writeLong(source.getLastModified());
+         encoder.out.writeLong(source.getChecksum());
+      }
+      encoder.out.writeInt(pool.getCharacters().size());
+      for (Character character : pool.getCharacters())
+      {
+         boolean hasSource = source != null && source.equals(character.getSource());
+         encoder.out.writeLong(hasSource ? character.getSourceOffset() : -1);
+         encoder.out.writeInt(hasSource ? character.getSourceLength() : 0);
+         encoder.writeProperties(character.toEntry().getProperties());
+      }
+      DataOutputStream out = new DataOutputStream(os);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(encoder.dictionary.size());
+      for (String str : encoder.dictionary)
+      {
+         byte[] data = str.getBytes(CHARSET);
+         out.writeInt(data.length);
+         out.write(data);
+      }
+      encoder.body.writeTo(out);
+      out.flush();
+   }
+
+   /**
+    * Reads a snapshot from the buffer, starting at its current position. The
+    * buffer is left after the end of the snapshot.
+    *
+    * @param path   the file the pool was originally read from, non-null
+    * @param buffer the buffer containing the snapshot, non-null
+    * @return the pool
+    * @throws IOException if the snapshot is malformed or of a different format
+    *                     version
+    */
+   public static CharacterPool read(Path path, ByteBuffer buffer) throws IOException
+   {
+      try
+      {
+         ByteBuffer in = buffer.order(ByteOrder.BIG_ENDIAN);
+         int magic = in.getInt();
+         if (magic != MAGIC)
+         {
+            throw new IOException(String.format("invalid snapshot magic 0x%08X", magic));
+         }
+         int version = in.getInt();
+         if (version != FORMAT_VERSION)
+         {
+            throw new IOException(String.format("unsupported snapshot version %d", version));
+         }
+         Decoder decoder = new Decoder(in);
+         int numStrings = decoder.readCount();
+         String[] dictionary = new String[numStrings];
+         for (int i = 0; i < numStrings; i++)
+         {
+            byte[] data = new byte[decoder.readCount()];
+            in.get(data);
+            dictionary[i] = new String(data, CHARSET);
+         }
+         decoder.dictionary = dictionary;
+         decoder.symbols = new String[numStrings];
+         String name = decoder.readString();
+         String fileName = decoder.readString();
+         // The original file is the one the pool is read from
+         PoolSource source = in.get() != 0 ? new PoolSource(path, in.getLong(), in.getLong(), in.getLong()) : null;
+         int numCharacters = decoder.readCount();
+         List<Character> characters = new ArrayList<>(numCharacters);
+         for (int i = 0; i < numCharacters; i++)
+         {
+            long offset = in.getLong();
+            int length = in.getInt();
+            characters.add(Character.fromProperties(decoder.readProperties(), offset >= 0 ? source : null, offset,
+                  length));
+         }
+         return new CharacterPool(path, name, fileName, characters);
+      }
+      catch (BufferUnderflowException e)
+      {
+         throw new IOException("truncated snapshot", e);
+      }
+   }
+
+   private CharacterPoolSnapshot()
+   {
+      // Disallow instantiation
+   }
+
+   private static final class Encoder
+   {
+      private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      private final DataOutputStream out = new DataOutputStream(body);
+      private final List<String> dictionary = new ArrayList<>();
+      private final Map<String, Integer> indices = new HashMap<>();
+
+      private void writeString(String str) throws IOException
+      {
+         if (str == null)
+         {
+            out.writeInt(NULL_STRING);
+            return;
+         }
+         Integer index = indices.get(str);
+         if (index == null)
+         {
+            index = dictionary.size();
+            dictionary.add(str);
+            indices.put(str, index);
+         }
+         out.writeInt(index);
+      }
+
+      private void writeProperties(List<Property> properties) throws IOException
+      {
+         out.writeInt(properties.size());
+         for (Property property : properties)
+         {
+            writeString(property.getField().getName());
+            PropertyType type = property.getField().getType();
+            out.writeByte(type.ordinal());
+            writeValue(type, property.getValue());
+         }
+      }
+
+      private void writeValue(PropertyType type, PropertyValue value) throws IOException
+      {
+         switch (type)
+         {
+         case STRING:
+            writeString(value.getDisplayValue());
+            break;
+         case NAME:
+            writeString(value.getDisplayValue());
+            out.writeInt(((NamePropertyValue) value).getNum());
+            break;
+         case INT:
+            out.writeInt(((IntPropertyValue) value).getValue());
+            break;
+         case BOOL:
+            out.writeBoolean(((BoolPropertyValue) value).getValue());
+            break;
+         case STRUCT:
+            StructPropertyValue struct = (StructPropertyValue) value;
+            writeString(struct.getStructType());
+            writeProperties(struct.getEntries());
+            break;
+         case ARRAY:
+            ArrayPropertyValue array = (ArrayPropertyValue) value;
+            writeProperties(array.getHeaders());
+            out.writeInt(array.getEntries().size());
+            for (ArrayPropertyValue.Entry entry : array.getEntries())
+            {
+               writeProperties(entry.getProperties());
+            }
+            break;
+         default:
+            throw new AssertionError(String.format("unhandled type: %s", type));
+         }
+      }
+   }
+
+   private static final class Decoder
+   {
+      private final ByteBuffer in;
+      private String[] dictionary;
+      // Canonical instances of the dictionary strings that were read as
+      // symbols so far. Free text such as names and biographies is never
+      // interned, so it does not fill up the global symbol table
+      private String[] symbols;
+
+      private Decoder(ByteBuffer in)
+      {
+         this.in = in;
+      }
+
+      private String readString() throws IOException
+      {
+         int index = readIndex();
+         return index != NULL_STRING ? dictionary[index] : null;
+      }
+
+      // Reads a property name, type name or name value
+      private String readSymbol() throws IOException
+      {
+         int index = readIndex();
+         if (index == NULL_STRING)
+         {
+            return null;
+         }
+         String symbol = symbols[index];
+         if (symbol == null)
+         {
+            symbol = SymbolTable.intern(dictionary[index]);
+            symbols[index] = symbol;
+         }
+         return symbol;
+      }
+
+      private int readIndex() throws IOException
+      {
+         int index = in.getInt();
+         if (index != NULL_STRING && (index < 0 || index >= dictionary.length))
+         {
+            throw new IOException(String.format("invalid dictionary index %d", index));
+         }
+         return index;
+      }
+
+      private int readCount() throws IOException
+      {
+         int count = in.getInt();
+         if (count < 0)
+         {
+            throw new IOException(String.format("invalid count %d", count));
+         }
+         return count;
+      }
+
+      private List<Property> readProperties() throws IOException
+      {
+         int numProperties = readCount();
+         List<Property> properties = new ArrayList<>(numProperties);
+         for (int i = 0; i < numProperties; i++)
+         {
+            String name = readSymbol();
+            int ordinal = in.get() & 0xFF;
+            if (name == null || ordinal >= TYPES.length)
+            {
+               throw new IOException(String.format("invalid property %s of type %d", name, ordinal));
+            }
+            PropertyType type = TYPES[ordinal];
+            properties.add(new Property(PropertyField.get(name, type), readValue(type)));
+         }
+         return properties;
+      }
+
+      private PropertyValue readValue(PropertyType type) throws IOException
+      {
+         switch (type)
+         {
+         case STRING:
+            return new StringPropertyValue(readString());
+         case NAME:
+            return NamePropertyValue.of(readSymbol(), in.getInt());
+         case INT:
+            return IntPropertyValue.of(in.getInt());
+         case BOOL:
+            return BoolPropertyValue.of(in.get() != 0);
+         case STRUCT:
+            return new StructPropertyValue(readSymbol(), readProperties());
+         case ARRAY:
+            List<Property> headers = readProperties();
+            int numEntries = readCount();
+            List<ArrayPropertyValue.Entry> entries = new ArrayList<>(numEntries);
+            for (int i = 0; i < numEntries; i++)
+            {
+               entries.add(new ArrayPropertyValue.Entry(readProperties()));
+            }
+            return new ArrayPropertyValue(headers, entries);
+         default:
+            throw new AssertionError(String.format("unhandled type: %s", type));
+         }
+      }
+   }
+}
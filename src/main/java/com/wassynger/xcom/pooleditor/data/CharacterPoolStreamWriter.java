@@ -0,0 +1,71 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Writes a character pool one character at a time, without the whole pool
+ * being held in memory. The number of characters is written once the writer
+ * is closed. The output is identical to writing a {@link CharacterPool} with
+ * the same file name and characters via a {@link CharacterPoolWriter}.
+ *
+ * @author Zach Wassynger
+ */
+public interface CharacterPoolStreamWriter extends AutoCloseable
+{
+   /**
+    * Opens the given file for writing a pool with the given pool file name.
+    *
+    * @param file         the file to write to, non-null
+    * @param poolFileName the file name stored within the pool
+    * @return the writer
+    * @throws IOException if the file could not be opened
+    */
+   static CharacterPoolStreamWriter open(Path file, String poolFileName) throws IOException
+   {
+      return new StreamingCharacterPoolWriter(file, poolFileName);
+   }
+
+   /**
+    * Appends the given character to the pool.
+    *
+    * @param character the given character, non-null
+    * @throws IOException           if some error occurred while writing to file
+    * @throws IllegalStateException if the character is read-only, or the writer
+    *                               is closed
+    */
+   void append(Character character) throws IOException;
+
+   /**
+    * Appends all remaining characters of the given iterator to the pool.
+    *
+    * @param characters the given characters, non-null
+    * @throws IOException           if some error occurred while writing to file
+    * @throws IllegalStateException if a character is read-only, or the writer
+    *                               is closed
+    */
+   default void appendAll(Iterator<? extends Character> characters) throws IOException
+   {
+      while (characters.hasNext())
+      {
+         append(characters.next());
+      }
+   }
+
+   /**
+    * Returns the number of characters appended so far.
+    *
+    * @return the number of characters
+    */
+   int getCount();
+
+   /**
+    * Finishes the pool by writing its end and the final number of characters,
+    * then closes the file.
+    *
+    * @throws IOException if some error occurred while writing to file
+    */
+   @Override
+   void close() throws IOException;
+}
@@ -7,11 +7,72 @@ public interface CharacterPoolWriter extends AutoCloseable
 {
    static CharacterPoolWriter open(Path file) throws IOException
    {
-      return new CharacterPoolWriterImpl(file);
+      return open(file, Mode.BUFFERED);
+   }
+
+   static CharacterPoolWriter open(Path file, Mode mode) throws IOException
+   {
+      switch (mode)
+      {
+      case STREAM:
+         return new CharacterPoolWriterImpl(file);
+      case BUFFERED:
+         return new BufferedCharacterPoolWriter(file);
+      case INCREMENTAL:
+         return new IncrementalCharacterPoolWriter(file);
+      case PARALLEL:
+         return new ParallelCharacterPoolWriter(file);
+      default:
+         throw new AssertionError(String.format("unhandled mode: %s", mode));
+      }
    }
 
    void write(CharacterPool pool) throws IOException;
 
+   /**
+    * Writes the given snapshot of an editable pool, with the given file name
+    * stored in the pool. The output is identical to writing
+    * {@link EditableCharPool.Snapshot#computeSavedPool(String)}, which is what
+    * this method does unless the writer can encode the edited characters
+    * directly.
+    *
+    * @param pool     the given snapshot, non-null
+    * @param fileName the file name to store in the pool
+    * @throws IOException if some error occurred while writing to file
+    */
+   default void write(EditableCharPool.Snapshot pool, String fileName) throws IOException
+   {
+      write(pool.computeSavedPool(fileName));
+   }
+
    @Override
    void close() throws IOException;
+
+   /**
+    * The supported strategies for writing a pool file. All strategies produce
+    * identical output.
+    */
+   enum Mode
+   {
+      /**
+       * Writes each value through a buffered output stream as it is encoded.
+       */
+      STREAM,
+      /**
+       * Encodes the whole pool into a single pre-sized buffer, which is then
+       * written to the file at once.
+       */
+      BUFFERED,
+      /**
+       * Copies the raw data of characters that are unchanged since they were
+       * read, and only encodes the rest. The file is replaced once the writer
+       * is closed.
+       */
+      INCREMENTAL,
+      /**
+       * Encodes the characters in parallel into a single pre-sized buffer,
+       * which is then written to the file at once.
+       */
+      PARALLEL
+   }
 }
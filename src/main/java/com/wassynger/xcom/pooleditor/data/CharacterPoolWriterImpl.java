@@ -7,9 +7,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * Basic implementation of {@link CharacterPoolWriter} that writes to a file via
@@ -31,17 +29,19 @@ final class CharacterPoolWriterImpl implements CharacterPoolWriter, PropertyWrit
     * Writes the given character pool to the file.
     *
     * @param pool the given pool, non-null
-    * @throws IOException          if some error occurred while writing to file
-    * @throws NullPointerException if the pool is null
+    * @throws IOException              if some error occurred while writing to file
+    * @throws NullPointerException     if the pool is null
+    * @throws IllegalArgumentException if the pool is read-only
     */
    @Override
    public void write(CharacterPool pool) throws IOException
    {
+      if (pool.isReadOnly())
+      {
+         throw new IllegalArgumentException(String.format("cannot write read-only pool '%s'", pool.getName()));
+      }
       writeHeader();
-      write(new Property(PropertyField.get("CharacterPool", PropertyType.ARRAY), new ArrayPropertyValue(
-            Collections.singletonList(new Property(PropertyField.get("PoolFileName", PropertyType.STRING),
-                  new StringPropertyValue(pool.getFileName()))),
-            pool.getCharacters().stream().map(Character::toEntry).collect(Collectors.toList()))));
+      write(pool.toProperty());
    }
 
    private void writeHeader() throws IOException
@@ -0,0 +1,797 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+
+/**
+ * Searches the characters of a pool by free text and by field constraints. The
+ * text of a character is its first name, last name, nickname and biography,
+ * along with the localized names of its class and country. Words of up to two
+ * letters match the start of a word, and longer words match anywhere within a
+ * word, so "jo" and "ann" both find "Joanna".
+ * <p>
+ * The index is built in the background from the base characters of the pool,
+ * which never change, by their index, so building it does not create any
+ * editable characters. Filters match edited characters against their current
+ * values instead, so results reflect edits without having to index them again,
+ * and the revision is incremented whenever a searched value of an edited
+ * character changes, so filtered lists know to test their characters again.
+ * Words are looked up in an index of the trigrams of each word and the first
+ * one and two letters of each word, while class and country names are matched
+ * once per distinct value. Except for creating it, the index must only be used
+ * on the JavaFX thread.
+ *
+ * @author Zach Wassynger
+ */
+public final class CharacterSearchIndex
+{
+   private final EditableCharacterList characters;
+   private final List<Character> baseCharacters;
+   private final ListChangeListener<EditableCharacter> listener;
+   private final ReadOnlyBooleanWrapper ready;
+   private final ReadOnlyIntegerWrapper revision;
+   // Edited characters, whose searched values are listened to
+   private final Set<EditableCharacter> editedCharacters;
+   private final ChangeListener<Object> valueListener;
+   // Set once the index is built
+   private Tables tables;
+   // Ids of the entries whose characters are in the pool
+   private BitSet present;
+   private boolean disposed;
+
+   /**
+    * Creates the index of the characters of the given pool, which is built
+    * with the given executor. The index is kept up to date as characters are
+    * added, removed, edited or reverted.
+    *
+    * @param pool       the given pool, non-null
+    * @param executor   the executor that builds the index, non-null
+    * @param fxExecutor the executor of the JavaFX thread, non-null
+    */
+   public CharacterSearchIndex(EditableCharPool pool, Executor executor, Executor fxExecutor)
+   {
+      this.characters = pool.getCharacterList();
+      this.baseCharacters = pool.getBasePool().getCharacters();
+      this.listener = this::onCharactersChanged;
+      this.ready = new ReadOnlyBooleanWrapper(this, "ready", false);
+      this.revision = new ReadOnlyIntegerWrapper(this, "revision", 0);
+      this.editedCharacters = Collections.newSetFromMap(new IdentityHashMap<>());
+      this.valueListener = (obs, oldValue, newValue) -> revision.set(revision.get() + 1);
+      characters.addListener(listener);
+      CompletableFuture.supplyAsync(() -> Tables.build(baseCharacters), executor)
+            .whenCompleteAsync(this::onBuilt, fxExecutor);
+   }
+
+   private void onBuilt(Tables built, Throwable error)
+   {
+      if (error != null)
+      {
+         System.err.printf("Failed to build search index: %s%n", error);
+         return;
+      }
+      if (disposed)
+      {
+         return;
+      }
+      tables = built;
+      present = new BitSet(built.entries.size());
+      // Catch up with the changes made while the index was built, without
+      // creating the characters that were never accessed
+      for (int i = 0; i < characters.size(); i++)
+      {
+         EditableCharacter character = characters.getIfCreated(i);
+         if (character != null)
+         {
+            add(character);
+         }
+         else
+         {
+            present.set(characters.getBaseIndex(i));
+         }
+      }
+      ready.set(true);
+      // Filters created from now on use the index
+      revision.set(revision.get() + 1);
+   }
+
+   private void onCharactersChanged(ListChangeListener.Change<? extends EditableCharacter> change)
+   {
+      if (tables == null)
+      {
+         // Caught up with once the index is built
+         return;
+      }
+      while (change.next())
+      {
+         if (change.wasUpdated())
+         {
+            for (int i = change.getFrom(); i < change.getTo(); i++)
+            {
+               updateEdited(change.getList().get(i));
+            }
+         }
+         else if (!change.wasPermutated())
+         {
+            for (EditableCharacter character : change.getRemoved())
+            {
+               remove(character);
+            }
+            for (EditableCharacter character : change.getAddedSubList())
+            {
+               add(character);
+            }
+         }
+      }
+   }
+
+   private void add(EditableCharacter character)
+   {
+      Entry entry = getEntry(character);
+      if (entry == null)
+      {
+         // Only characters that are not from the base pool are indexed here
+         entry = tables.add(character);
+      }
+      present.set(entry.id);
+      updateEdited(character);
+   }
+
+   private void remove(EditableCharacter character)
+   {
+      Entry entry = getEntry(character);
+      if (entry != null)
+      {
+         present.clear(entry.id);
+         // Entries of base characters are kept, in case they are added back
+         tables.byCharacter.remove(character);
+      }
+      if (editedCharacters.remove(character))
+      {
+         listenToValues(character, false);
+      }
+   }
+
+   // Returns the entry of the character, or null if it has none
+   private Entry getEntry(EditableCharacter character)
+   {
+      int baseIndex = character.getBaseIndex(baseCharacters);
+      return baseIndex >= 0 ? tables.entries.get(baseIndex) : tables.byCharacter.get(character);
+   }
+
+   private void updateEdited(EditableCharacter character)
+   {
+      boolean changed = character.isEdited() ?
+            editedCharacters.add(character) :
+            editedCharacters.remove(character);
+      if (changed)
+      {
+         listenToValues(character, character.isEdited());
+      }
+   }
+
+   private void listenToValues(EditableCharacter character, boolean listen)
+   {
+      for (ObservableValue<?> value : Entry.currentValues(character))
+      {
+         if (listen)
+         {
+            value.addListener(valueListener);
+         }
+         else
+         {
+            value.removeListener(valueListener);
+         }
+      }
+   }
+
+   /**
+    * Stops keeping the index up to date, once it is no longer used.
+    */
+   public void dispose()
+   {
+      disposed = true;
+      characters.removeListener(listener);
+      for (EditableCharacter character : editedCharacters)
+      {
+         listenToValues(character, false);
+      }
+      editedCharacters.clear();
+   }
+
+   /**
+    * Returns whether the index is built. Filters can be created before then,
+    * but have to check every character.
+    *
+    * @return true if the index is built
+    */
+   public boolean isReady()
+   {
+      return ready.get();
+   }
+
+   public ReadOnlyBooleanProperty readyProperty()
+   {
+      return ready.getReadOnlyProperty();
+   }
+
+   /**
+    * Returns the revision of the index, which is incremented whenever filters
+    * that were already applied should be applied again: when a searched value
+    * of an edited character changes, and once the index is built.
+    *
+    * @return the revision
+    */
+   public int getRevision()
+   {
+      return revision.get();
+   }
+
+   public ReadOnlyIntegerProperty revisionProperty()
+   {
+      return revision.getReadOnlyProperty();
+   }
+
+   /**
+    * Creates a filter that matches the characters that match the given query.
+    * Unedited characters are matched against the index, and edited characters
+    * against their current values at the time they are tested. The query is
+    * split into words, all of which must match. Words of the form key:value
+    * constrain a field instead, where the key is one of gender, class,
+    * country, soldier, vip or darkvip: gender matches the start of the gender,
+    * class and country match their names like words, and the flags take yes
+    * or no.
+    *
+    * @param query the given query, non-null
+    * @return the filter, or null if the query is blank
+    */
+   public Predicate<EditableCharacter> createFilter(String query)
+   {
+      Query parsed = Query.parse(query);
+      if (parsed.isEmpty())
+      {
+         return null;
+      }
+      if (tables == null)
+      {
+         return c -> parsed.matches(c.isEdited() ? Entry.fromCurrent(c, -1) : Entry.fromBase(c.getBaseChar(), -1));
+      }
+      BitSet matches = search(parsed);
+      return c ->
+      {
+         Entry entry = getEntry(c);
+         if (entry == null || !present.get(entry.id))
+         {
+            return false;
+         }
+         return c.isEdited() ? parsed.matches(Entry.fromCurrent(c, entry.id)) : matches.get(entry.id);
+      };
+   }
+
+   // Returns the ids of the entries whose base values match
+   private BitSet search(Query query)
+   {
+      List<Entry> entries = tables.entries;
+      BitSet candidates = null;
+      for (Term term : query.terms)
+      {
+         BitSet found = tables.find(term);
+         if (candidates == null)
+         {
+            candidates = found;
+         }
+         else
+         {
+            candidates.and(found);
+         }
+         if (candidates.isEmpty())
+         {
+            break;
+         }
+      }
+      if (candidates == null)
+      {
+         candidates = (BitSet) present.clone();
+      }
+      else
+      {
+         candidates.and(present);
+      }
+      // The index only finds candidates, since the trigrams of a word can be
+      // spread across a word
+      BitSet matches = new BitSet(entries.size());
+      for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+      {
+         if (query.matches(entries.get(id)))
+         {
+            matches.set(id);
+         }
+      }
+      return matches;
+   }
+
+   // Calls the consumer with the start and end of each word of the text
+   private static void forEachWord(String text, WordConsumer consumer)
+   {
+      int start = -1;
+      for (int i = 0; i <= text.length(); i++)
+      {
+         boolean inWord = i < text.length() && java.lang.Character.isLetterOrDigit(text.charAt(i));
+         if (inWord && start < 0)
+         {
+            start = i;
+         }
+         else if (!inWord && start >= 0)
+         {
+            consumer.accept(start, i);
+            start = -1;
+         }
+      }
+   }
+
+   @FunctionalInterface
+   private interface WordConsumer
+   {
+      void accept(int start, int end);
+   }
+
+   private static String normalize(String str)
+   {
+      return str != null ? str.toLowerCase(Locale.ROOT) : "";
+   }
+
+   // Returns whether the text has a word that starts with the prefix
+   private static boolean hasWordPrefix(String text, String prefix)
+   {
+      for (int i = text.indexOf(prefix); i >= 0; i = text.indexOf(prefix, i + 1))
+      {
+         if (i == 0 || !java.lang.Character.isLetterOrDigit(text.charAt(i - 1)))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   // The searchable values of a character
+   private static final class Entry
+   {
+      private final int id;
+      // Normalized names and biography, one per line
+      private final String text;
+      private final String classRaw;
+      private final String countryRaw;
+      private final int gender;
+      private final boolean soldier;
+      private final boolean vip;
+      private final boolean darkVip;
+      private Entry(int id, String firstName, String lastName, String nickname,
+            String biography, String classRaw, String countryRaw, int gender, boolean soldier, boolean vip,
+            boolean darkVip)
+      {
+         this.id = id;
+         this.text = normalize(String.join("\n", Objects.toString(firstName, ""), Objects.toString(lastName, ""),
+               Objects.toString(nickname, ""), Objects.toString(biography, "")));
+         this.classRaw = Objects.toString(classRaw, "");
+         this.countryRaw = Objects.toString(countryRaw, "");
+         this.gender = gender;
+         this.soldier = soldier;
+         this.vip = vip;
+         this.darkVip = darkVip;
+      }
+
+      static Entry fromBase(Character base, int id)
+      {
+         PropertyValue gender = base.get(AppearanceField.GENDER);
+         return new Entry(id, base.tryGet(CharacterField.FIRST_NAME).orElse(null),
+               base.tryGet(CharacterField.LAST_NAME).orElse(null), base.tryGet(CharacterField.NICKNAME).orElse(null),
+               base.tryGet(CharacterField.BIOGRAPHY).orElse(null), base.tryGet(CharacterField.CLASS).orElse(null),
+               base.tryGet(CharacterField.COUNTRY).orElse(null),
+               gender instanceof IntPropertyValue ? ((IntPropertyValue) gender).getValue() : 0,
+               getBool(base, CharacterField.IS_SOLDIER), getBool(base, CharacterField.IS_VIP),
+               getBool(base, CharacterField.IS_DARK_VIP));
+      }
+
+      private static boolean getBool(Character base, PropertyField field)
+      {
+         PropertyValue value = base.get(field);
+         return value instanceof BoolPropertyValue && ((BoolPropertyValue) value).getValue();
+      }
+
+      // Only used on the JavaFX thread, since it reads the properties
+      static Entry fromCurrent(EditableCharacter c, int id)
+      {
+         return new Entry(id, c.strProperty(CharacterField.FIRST_NAME).get(),
+               c.strProperty(CharacterField.LAST_NAME).get(), c.strProperty(CharacterField.NICKNAME).get(),
+               c.strProperty(CharacterField.BIOGRAPHY).get(), c.strProperty(CharacterField.CLASS).get(),
+               c.strProperty(CharacterField.COUNTRY).get(), c.intProperty(AppearanceField.GENDER).get(),
+               c.boolProperty(CharacterField.IS_SOLDIER).get(), c.boolProperty(CharacterField.IS_VIP).get(),
+               c.boolProperty(CharacterField.IS_DARK_VIP).get());
+      }
+
+      // The properties read by fromCurrent
+      static List<ObservableValue<?>> currentValues(EditableCharacter c)
+      {
+         return Arrays.asList(c.strProperty(CharacterField.FIRST_NAME), c.strProperty(CharacterField.LAST_NAME),
+               c.strProperty(CharacterField.NICKNAME), c.strProperty(CharacterField.BIOGRAPHY),
+               c.strProperty(CharacterField.CLASS), c.strProperty(CharacterField.COUNTRY),
+               c.intProperty(AppearanceField.GENDER), c.boolProperty(CharacterField.IS_SOLDIER),
+               c.boolProperty(CharacterField.IS_VIP), c.boolProperty(CharacterField.IS_DARK_VIP));
+      }
+   }
+
+   // A word of a query
+   private static final class Term
+   {
+      private final String word;
+      // Whether each class and country name matches, by raw value
+      private final Map<String, Boolean> classMatches = new HashMap<>();
+      private final Map<String, Boolean> countryMatches = new HashMap<>();
+
+      private Term(String word)
+      {
+         this.word = word;
+      }
+
+      boolean matches(Entry entry)
+      {
+         return matchesText(entry.text) || matchesClass(entry.classRaw) || matchesCountry(entry.countryRaw);
+      }
+
+      boolean matchesText(String text)
+      {
+         return word.length() <= 2 ? hasWordPrefix(text, word) : text.contains(word);
+      }
+
+      boolean matchesClass(String raw)
+      {
+         return classMatches.computeIfAbsent(raw, r -> matchesName(StringTemplate.CLASS, r));
+      }
+
+      boolean matchesCountry(String raw)
+      {
+         return countryMatches.computeIfAbsent(raw, r -> matchesName(StringTemplate.COUNTRY, r));
+      }
+
+      private boolean matchesName(StringTemplate template, String raw)
+      {
+         return !raw.isEmpty() &&
+                (matchesText(normalize(raw)) || matchesText(normalize(template.getOrAdd(raw).getLocalized())));
+      }
+   }
+
+   private static final class Query
+   {
+      private final List<Term> terms = new ArrayList<>();
+      private final List<Predicate<Entry>> constraints = new ArrayList<>();
+
+      static Query parse(String str)
+      {
+         Query query = new Query();
+         for (String word : normalize(str).trim().split("\\s+"))
+         {
+            int colon = word.indexOf(':');
+            Predicate<Entry> constraint = colon > 0 ?
+                  createConstraint(word.substring(0, colon), word.substring(colon + 1)) :
+                  null;
+            if (constraint != null)
+            {
+               query.constraints.add(constraint);
+            }
+            else
+            {
+               forEachWord(word, (start, end) -> query.terms.add(new Term(word.substring(start, end))));
+            }
+         }
+         // Longer words have fewer candidates, so they narrow the search first
+         query.terms.sort(Comparator.comparingInt((Term t) -> t.word.length()).reversed());
+         return query;
+      }
+
+      // Returns the constraint, or null if it is not a valid constraint
+      private static Predicate<Entry> createConstraint(String key, String value)
+      {
+         if (value.isEmpty())
+         {
+            return null;
+         }
+         switch (key)
+         {
+         case "gender":
+            for (Gender gender : Gender.values())
+            {
+               if (normalize(gender.getLocalizedString()).startsWith(value))
+               {
+                  return e -> e.gender == gender.getValue();
+               }
+            }
+            return e -> false;
+         case "class":
+         {
+            Term term = new Term(value);
+            return e -> term.matchesClass(e.classRaw);
+         }
+         case "country":
+         {
+            Term term = new Term(value);
+            return e -> term.matchesCountry(e.countryRaw);
+         }
+         case "soldier":
+            return createFlagConstraint(value, e -> e.soldier);
+         case "vip":
+            return createFlagConstraint(value, e -> e.vip);
+         case "darkvip":
+            return createFlagConstraint(value, e -> e.darkVip);
+         default:
+            return null;
+         }
+      }
+
+      private static Predicate<Entry> createFlagConstraint(String value, Predicate<Entry> flag)
+      {
+         switch (value)
+         {
+         case "yes":
+         case "true":
+            return flag;
+         case "no":
+         case "false":
+            return flag.negate();
+         default:
+            return null;
+         }
+      }
+
+      boolean isEmpty()
+      {
+         return terms.isEmpty() && constraints.isEmpty();
+      }
+
+      boolean matches(Entry entry)
+      {
+         for (Predicate<Entry> constraint : constraints)
+         {
+            if (!constraint.test(entry))
+            {
+               return false;
+            }
+         }
+         for (Term term : terms)
+         {
+            if (!term.matches(entry))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
+   // The entries and the postings of their words, classes and countries. The
+   // id of the entry of a base character is its index.
+   private static final class Tables
+   {
+      private final List<Entry> entries = new ArrayList<>();
+      // Entries of the characters that are not from the base pool
+      private final Map<EditableCharacter, Entry> byCharacter = new IdentityHashMap<>();
+      private final GramTable grams = new GramTable();
+      private final Map<String, Postings> classes = new HashMap<>();
+      private final Map<String, Postings> countries = new HashMap<>();
+
+      static Tables build(List<Character> baseCharacters)
+      {
+         Tables tables = new Tables();
+         for (int i = 0; i < baseCharacters.size(); i++)
+         {
+            tables.add(Entry.fromBase(baseCharacters.get(i), i));
+         }
+         return tables;
+      }
+
+      Entry add(EditableCharacter character)
+      {
+         Entry entry = Entry.fromBase(character.getBaseChar(), entries.size());
+         add(entry);
+         byCharacter.put(character, entry);
+         return entry;
+      }
+
+      private void add(Entry entry)
+      {
+         entries.add(entry);
+         String text = entry.text;
+         forEachWord(text, (start, end) ->
+         {
+            grams.add(GramTable.prefixKey(text, start, 1), entry.id);
+            if (end - start >= 2)
+            {
+               grams.add(GramTable.prefixKey(text, start, 2), entry.id);
+            }
+            for (int i = start; i + 3 <= end; i++)
+            {
+               grams.add(GramTable.trigramKey(text, i), entry.id);
+            }
+         });
+         classes.computeIfAbsent(entry.classRaw, k -> new Postings()).add(entry.id);
+         countries.computeIfAbsent(entry.countryRaw, k -> new Postings()).add(entry.id);
+      }
+
+      // Returns the ids of the entries that might match the term
+      BitSet find(Term term)
+      {
+         BitSet found = grams.find(term.word);
+         for (Map.Entry<String, Postings> entry : classes.entrySet())
+         {
+            if (term.matchesClass(entry.getKey()))
+            {
+               entry.getValue().addTo(found);
+            }
+         }
+         for (Map.Entry<String, Postings> entry : countries.entrySet())
+         {
+            if (term.matchesCountry(entry.getKey()))
+            {
+               entry.getValue().addTo(found);
+            }
+         }
+         return found;
+      }
+   }
+
+   // Sorted ids of the entries that have some word, class or country
+   private static final class Postings
+   {
+      private int[] ids = new int[4];
+      private int size;
+
+      void add(int id)
+      {
+         if (size > 0 && ids[size - 1] == id)
+         {
+            return;
+         }
+         if (size == ids.length)
+         {
+            ids = Arrays.copyOf(ids, size * 2);
+         }
+         ids[size++] = id;
+      }
+
+      void addTo(BitSet bits)
+      {
+         for (int i = 0; i < size; i++)
+         {
+            bits.set(ids[i]);
+         }
+      }
+   }
+
+   // Open addressing map of the grams of words to their postings
+   private static final class GramTable
+   {
+      // Kinds of keys, which also keep keys from being zero
+      private static final long PREFIX = 1L << 48;
+      private static final long TRIGRAM = 2L << 48;
+
+      private long[] keys = new long[1024];
+      private Postings[] postings = new Postings[1024];
+      private int size;
+
+      static long prefixKey(String word, int start, int length)
+      {
+         long key = PREFIX | (long) word.charAt(start) << 16;
+         return length > 1 ? key | word.charAt(start + 1) : key;
+      }
+
+      static long trigramKey(String word, int start)
+      {
+         return TRIGRAM | (long) word.charAt(start) << 32 | (long) word.charAt(start + 1) << 16 |
+                word.charAt(start + 2);
+      }
+
+      void add(long key, int id)
+      {
+         int slot = findSlot(key);
+         if (keys[slot] == 0)
+         {
+            if ((size + 1) * 2 > keys.length)
+            {
+               grow();
+               slot = findSlot(key);
+            }
+            keys[slot] = key;
+            postings[slot] = new Postings();
+            size++;
+         }
+         postings[slot].add(id);
+      }
+
+      Postings get(long key)
+      {
+         int slot = findSlot(key);
+         return keys[slot] != 0 ? postings[slot] : null;
+      }
+
+      // Returns the ids of the entries that have all grams of the word
+      BitSet find(String word)
+      {
+         BitSet found = new BitSet();
+         if (word.length() <= 2)
+         {
+            Postings prefix = get(prefixKey(word, 0, word.length()));
+            if (prefix != null)
+            {
+               prefix.addTo(found);
+            }
+            return found;
+         }
+         List<Postings> lists = new ArrayList<>(word.length() - 2);
+         for (int i = 0; i + 3 <= word.length(); i++)
+         {
+            Postings trigram = get(trigramKey(word, i));
+            if (trigram == null)
+            {
+               return found;
+            }
+            lists.add(trigram);
+         }
+         lists.sort(Comparator.comparingInt(p -> p.size));
+         lists.get(0).addTo(found);
+         for (int i = 1; i < lists.size() && !found.isEmpty(); i++)
+         {
+            BitSet other = new BitSet();
+            lists.get(i).addTo(other);
+            found.and(other);
+         }
+         return found;
+      }
+
+      private int findSlot(long key)
+      {
+         int mask = keys.length - 1;
+         int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+         while (keys[slot] != 0 && keys[slot] != key)
+         {
+            slot = (slot + 1) & mask;
+         }
+         return slot;
+      }
+
+      private void grow()
+      {
+         long[] oldKeys = keys;
+         Postings[] oldPostings = postings;
+         keys = new long[oldKeys.length * 2];
+         postings = new Postings[oldKeys.length * 2];
+         for (int i = 0; i < oldKeys.length; i++)
+         {
+            if (oldKeys[i] != 0)
+            {
+               int slot = findSlot(oldKeys[i]);
+               keys[slot] = oldKeys[i];
+               postings[slot] = oldPostings[i];
+            }
+         }
+      }
+   }
+}
@@ -1,12 +1,18 @@
 package com.wassynger.xcom.pooleditor.data;
 
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 
-import javafx.beans.Observable;
-import javafx.beans.binding.Bindings;
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanWrapper;
-import javafx.collections.FXCollections;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 public class EditableCharPool
@@ -17,22 +23,61 @@ public class EditableCharPool
    }
 
    private final CharacterPool basePool;
-   private final ObservableList<EditableCharacter> characters;
+   private final EditableCharacterList characters;
+   // Characters of the base pool that were created so far, to tell added and
+   // removed characters apart
+   private final Set<EditableCharacter> baseCharacters;
+   // Updates the count when a character in the pool is edited or reverted
+   private final ChangeListener<Boolean> characterListener;
+   private final ReadOnlyIntegerWrapper changeCount;
    private final ReadOnlyBooleanWrapper edited;
 
    private EditableCharPool(CharacterPool basePool)
    {
       this.basePool = basePool;
-      this.characters = FXCollections.observableArrayList(c -> new Observable[] { c.editedProperty() });
-      characters.addAll(basePool.getCharacters().stream().map(EditableCharacter::create).collect(Collectors.toList()));
+      this.baseCharacters = Collections.newSetFromMap(new IdentityHashMap<>());
+      this.changeCount = new ReadOnlyIntegerWrapper(this, "changeCount", 0);
       this.edited = new ReadOnlyBooleanWrapper(this, "edited", false);
-      edited.bind(Bindings.createBooleanBinding(this::computeEdited, characters));
+      edited.bind(changeCount.greaterThan(0));
+      this.characterListener = (obs, old, newValue) -> addChanges(newValue ? 1 : -1);
+      // Editable characters are only created once accessed, so the base
+      // characters are not decoded up front
+      this.characters = new EditableCharacterList(basePool.getCharacters(), this::onBaseCharacterCreated);
+      characters.addListener(this::onCharactersChanged);
    }
 
-   private boolean computeEdited()
+   private void onBaseCharacterCreated(EditableCharacter character)
    {
-      // TODO also check for new or removed characters
-      return characters.stream().anyMatch(EditableCharacter::isEdited);
+      baseCharacters.add(character);
+      character.editedProperty().addListener(characterListener);
+   }
+
+   private void onCharactersChanged(ListChangeListener.Change<? extends EditableCharacter> change)
+   {
+      while (change.next())
+      {
+         // Permutations and updates do not change which characters are in the
+         // pool, and edits are counted by the character listener
+         for (EditableCharacter character : change.getRemoved())
+         {
+            character.editedProperty().removeListener(characterListener);
+            // A removed base character is a change, a removed new character
+            // undoes one
+            int changes = baseCharacters.contains(character) ? 1 : -1;
+            addChanges(character.isEdited() ? changes - 1 : changes);
+         }
+         for (EditableCharacter character : change.getAddedSubList())
+         {
+            character.editedProperty().addListener(characterListener);
+            int changes = baseCharacters.contains(character) ? -1 : 1;
+            addChanges(character.isEdited() ? changes + 1 : changes);
+         }
+      }
+   }
+
+   private void addChanges(int delta)
+   {
+      changeCount.set(changeCount.get() + delta);
    }
 
    public CharacterPool getBasePool()
@@ -45,6 +90,65 @@ public class EditableCharPool
       return characters;
    }
 
+   // Gives access to the characters without creating them
+   EditableCharacterList getCharacterList()
+   {
+      return characters;
+   }
+
+   /**
+    * Creates the pool that should be saved. Characters that were not edited
+    * are kept as they are.
+    *
+    * @param fileName the file name to store in the pool
+    * @return the pool to save
+    * @see EditableCharacter#computeSavedChar()
+    */
+   public CharacterPool computeSavedPool(String fileName)
+   {
+      return snapshot().computeSavedPool(fileName);
+   }
+
+   /**
+    * Takes a snapshot of the characters currently in the pool and of which of
+    * them are edited, so the pool can be saved on another thread. Must be
+    * called on the JavaFX thread. Characters that were never accessed are not
+    * created, so a lazily read pool stays lazy.
+    *
+    * @return the snapshot
+    */
+   public Snapshot snapshot()
+   {
+      int size = characters.size();
+      EditableCharacter[] created = new EditableCharacter[size];
+      int[] baseIndices = new int[size];
+      BitSet editedChars = new BitSet(size);
+      for (int i = 0; i < size; i++)
+      {
+         created[i] = characters.getIfCreated(i);
+         baseIndices[i] = characters.getBaseIndex(i);
+         editedChars.set(i, created[i] != null && created[i].isEdited());
+      }
+      return new Snapshot(basePool, created, baseIndices, editedChars);
+   }
+
+   /**
+    * Returns the number of unsaved changes, which is the number of edited
+    * characters plus the number of characters that were added or removed. The
+    * count is kept up to date as changes happen, without scanning the pool.
+    *
+    * @return the number of unsaved changes
+    */
+   public int getChangeCount()
+   {
+      return changeCount.get();
+   }
+
+   public ReadOnlyIntegerProperty changeCountProperty()
+   {
+      return changeCount.getReadOnlyProperty();
+   }
+
    public boolean isEdited()
    {
       return edited.get();
@@ -54,4 +158,79 @@ public class EditableCharPool
    {
       return edited.getReadOnlyProperty();
    }
+
+   /**
+    * The characters of an editable pool at some point in time, which can be
+    * read on any thread. The properties of edited characters are still read
+    * when the snapshot is written, so they should not be edited until then.
+    */
+   public static final class Snapshot
+   {
+      private final CharacterPool basePool;
+      // Characters in pool order, or null for base characters that were never
+      // accessed, in which case the index of the base character is in baseIndices
+      private final EditableCharacter[] characters;
+      private final int[] baseIndices;
+      private final BitSet edited;
+
+      private Snapshot(CharacterPool basePool, EditableCharacter[] characters, int[] baseIndices, BitSet edited)
+      {
+         this.basePool = basePool;
+         this.characters = characters;
+         this.baseIndices = baseIndices;
+         this.edited = edited;
+      }
+
+      public CharacterPool getBasePool()
+      {
+         return basePool;
+      }
+
+      public int size()
+      {
+         return characters.length;
+      }
+
+      /**
+       * Returns the edited character at the given index.
+       *
+       * @param index the given index
+       * @return the edited character, or null if the character was not edited
+       */
+      EditableCharacter getEdited(int index)
+      {
+         return edited.get(index) ? characters[index] : null;
+      }
+
+      /**
+       * Returns the base character at the given index, which is decoded if the
+       * pool was read lazily.
+       *
+       * @param index the given index
+       * @return the base character
+       */
+      Character getBaseChar(int index)
+      {
+         EditableCharacter character = characters[index];
+         return character != null ? character.getBaseChar() : basePool.getCharacters().get(baseIndices[index]);
+      }
+
+      /**
+       * Creates the pool that should be saved. Characters that were not edited
+       * are kept as they are.
+       *
+       * @param fileName the file name to store in the pool
+       * @return the pool to save
+       */
+      public CharacterPool computeSavedPool(String fileName)
+      {
+         List<Character> saved = new ArrayList<>(characters.length);
+         for (int i = 0; i < characters.length; i++)
+         {
+            EditableCharacter character = getEdited(i);
+            saved.add(character != null ? character.computeEditedChar() : getBaseChar(i));
+         }
+         return new CharacterPool(basePool.getPath(), basePool.getName(), fileName, saved);
+      }
+   }
 }
@@ -1,14 +1,15 @@
 package com.wassynger.xcom.pooleditor.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
-import javafx.beans.Observable;
-import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.Property;
@@ -23,27 +24,101 @@ public class EditableCharacter
 {
    public static EditableCharacter create(Character character)
    {
-      return new EditableCharacter(character);
+      return new EditableCharacter(Collections.singletonList(Objects.requireNonNull(character)), 0);
    }
 
-   private final Character baseChar;
-   private final Map<PropertyField, Property<?>> propertyMap;
+   /**
+    * Creates an editable character for the base character at the given index.
+    * The base character is fetched from the list whenever it is needed instead
+    * of being held, so a lazily read pool may drop it again while it is unused.
+    *
+    * @param baseChars the base characters, which must not change, non-null
+    * @param index     the index of the base character
+    * @return the editable character
+    */
+   static EditableCharacter create(List<Character> baseChars, int index)
+   {
+      return new EditableCharacter(Objects.requireNonNull(baseChars), index);
+   }
+
+   private static final CharacterField[] CHARACTER_FIELDS = CharacterField.values();
+   private static final AppearanceField[] APPEARANCE_FIELDS = AppearanceField.values();
+
+   // The base character is fetched by index each time, see getBaseChar
+   private final List<Character> baseChars;
+   private final int baseIndex;
+   // Properties are only created when first used, so characters that are never
+   // selected or edited stay as cheap as their base character. Fields without
+   // a property have the value of the base character.
+   private Map<PropertyField, Property<?>> propertyMap;
+   // Fields that differ from the base character, indexed by dirtyIndex, or
+   // null if no property was created yet
+   private BitSet dirty;
    private final ReadOnlyBooleanWrapper edited;
 
-   private EditableCharacter(Character baseChar)
+   private EditableCharacter(List<Character> baseChars, int baseIndex)
    {
-      this.baseChar = baseChar;
-      this.propertyMap = new HashMap<>();
-      for (CharacterField field : CharacterField.values())
+      this.baseChars = baseChars;
+      this.baseIndex = baseIndex;
+      this.edited = new ReadOnlyBooleanWrapper(this, "edited", false);
+   }
+
+   private Property<?> getOrCreateProperty(PropertyField field)
+   {
+      if (propertyMap == null)
       {
-         createProperty(field, baseChar.get(field)).ifPresent(p -> propertyMap.put(field, p));
+         propertyMap = new HashMap<>();
+         dirty = new BitSet(CHARACTER_FIELDS.length + APPEARANCE_FIELDS.length);
       }
-      for (AppearanceField field : AppearanceField.values())
+      Property<?> property = propertyMap.get(field);
+      if (property != null)
       {
-         createProperty(field, baseChar.get(field)).ifPresent(p -> propertyMap.put(field, p));
+         return property;
+      }
+      if (field instanceof CharacterField || field instanceof AppearanceField)
+      {
+         property = createProperty(field, getBaseChar().get(field)).orElseThrow(() -> new IllegalArgumentException(
+               String.format("field %s of type %s cannot be edited", field.getName(), field.getType())));
+         // Each change only checks its own field against the base character
+         int index = dirtyIndex(field);
+         property.addListener((obs, oldValue, newValue) ->
+         {
+            dirty.set(index, computeEdited(field));
+            edited.set(!dirty.isEmpty());
+         });
+      }
+      else
+      {
+         // Unknown fields are not saved, so they start out empty
+         property = createProperty(field, null).orElseThrow(() -> new IllegalArgumentException(
+               String.format("field %s of type %s cannot be edited", field.getName(), field.getType())));
+      }
+      propertyMap.put(field, property);
+      return property;
+   }
+
+   // Returns whether the field has a property, and is therefore saved
+   private static boolean isEditable(PropertyField field)
+   {
+      switch (field.getType())
+      {
+      case BOOL:
+      case INT:
+      case STRING:
+      case NAME:
+         return true;
+      default:
+         return false;
       }
-      this.edited = new ReadOnlyBooleanWrapper(this, "edited", false);
-      edited.bind(Bindings.createBooleanBinding(this::computeEdited, propertyMap.values().toArray(new Observable[0])));
+   }
+
+   // Returns the bit of the field in the dirty set, which is only defined for
+   // known fields
+   private static int dirtyIndex(PropertyField field)
+   {
+      return field instanceof CharacterField
+            ? ((CharacterField) field).ordinal()
+            : CHARACTER_FIELDS.length + ((AppearanceField) field).ordinal();
    }
 
    private Optional<Property<?>> createProperty(PropertyField field, PropertyValue value)
@@ -65,51 +140,62 @@ public class EditableCharacter
       }
    }
 
-   private boolean computeEdited()
-   {
-      return propertyMap.keySet().stream().anyMatch(this::computeEdited);
-   }
-
    private boolean computeEdited(PropertyField field)
    {
-      // TODO handle defaults when key missing
+      // A field missing from the base character compares as false, 0 or null,
+      // which is what its property starts out as. The field is therefore only
+      // edited once it is set to something else. An edited character saves
+      // every known field, so the missing field is then written with the
+      // value of its property.
+      PropertyValue value = getBaseChar().get(field);
       switch (field.getType())
       {
       case BOOL:
-         return Optional.ofNullable(baseChar.get(field))
-                      .map(BoolPropertyValue.class::cast)
-                      .map(BoolPropertyValue::getValue)
-                      .filter(v -> v)
-                      .isPresent() != boolProperty(field).get();
+         return (value != null && ((BoolPropertyValue) value).getValue()) != boolProperty(field).get();
       case INT:
-         return Optional.ofNullable(baseChar.get(field))
-                      .map(IntPropertyValue.class::cast)
-                      .map(IntPropertyValue::getValue)
-                      .orElse(0) != intProperty(field).get();
+         return (value != null ? ((IntPropertyValue) value).getValue() : 0) != intProperty(field).get();
       case STRING:
       case NAME:
-         return !Objects.equals(
-               Optional.ofNullable(baseChar.get(field)).map(PropertyValue::getDisplayValue).orElse(null),
-               strProperty(field).getValue());
+         return !Objects.equals(value != null ? value.getDisplayValue() : null, strProperty(field).getValue());
       default:
          throw new AssertionError(String.format("unhandled type: %s", field.getType()));
       }
    }
 
+   /**
+    * Returns the character this character was created from. For a lazily read
+    * pool, the base character is decoded on demand and may be dropped again
+    * while unused, so the returned instance may differ between calls.
+    *
+    * @return the base character
+    */
    public Character getBaseChar()
    {
-      return baseChar;
+      return baseChars.get(baseIndex);
+   }
+
+   /**
+    * Returns the index of the base character within the given base
+    * characters, without fetching it.
+    *
+    * @param baseChars the given base characters, non-null
+    * @return the index, or -1 if the base character is not from the list
+    */
+   int getBaseIndex(List<Character> baseChars)
+   {
+      return this.baseChars == baseChars ? baseIndex : -1;
    }
 
    public Character computeEditedChar()
    {
+      Character baseChar = getBaseChar();
       Map<PropertyField, PropertyValue> map = com.wassynger.xcom.pooleditor.data.Property.toMap(
             baseChar.toEntry().getProperties());
       for (CharacterField field : CharacterField.values())
       {
          if (field.getType() != PropertyType.STRUCT)
          {
-            map.put(field, computeValue(field));
+            map.put(field, computeValue(baseChar, field));
          }
       }
       StructPropertyValue value = (StructPropertyValue) map.get(CharacterField.APPEARANCE);
@@ -118,9 +204,9 @@ public class EditableCharacter
          List<com.wassynger.xcom.pooleditor.data.Property> properties = new ArrayList<>();
          for (AppearanceField field : AppearanceField.values())
          {
-            if (propertyMap.containsKey(field))
+            if (isEditable(field))
             {
-               properties.add(new com.wassynger.xcom.pooleditor.data.Property(field, computeValue(field)));
+               properties.add(new com.wassynger.xcom.pooleditor.data.Property(field, computeValue(baseChar, field)));
             }
          }
          map.put(CharacterField.APPEARANCE, new StructPropertyValue(value.getStructType(), properties));
@@ -128,19 +214,157 @@ public class EditableCharacter
       return Character.fromProperties(com.wassynger.xcom.pooleditor.data.Property.toList(map));
    }
 
-   private PropertyValue computeValue(PropertyField field)
+   /**
+    * Computes the size of the entry written by {@link #writeEntry}.
+    *
+    * @return the size in bytes, including the trailing 'None'
+    * @throws IllegalStateException if the base character is read-only
+    */
+   int computeEntryLength()
    {
-      Property<?> property = propertyMap.get(field);
+      LengthCountingWriter counter = new LengthCountingWriter();
+      try
+      {
+         writeEntry(counter);
+      }
+      catch (IOException e)
+      {
+         throw new AssertionError("counting cannot fail", e);
+      }
+      return counter.getLength();
+   }
+
+   /**
+    * Writes the entry of the edited character straight from the base
+    * character and the edited properties. The output is identical to writing
+    * the entry of {@link #computeEditedChar()}, without creating it: the
+    * fields of the base character come first in their original order,
+    * followed by any missing character fields, and the appearance struct
+    * holds every appearance field.
+    *
+    * @param writer the writer, non-null
+    * @throws IOException           if some error occurred while writing
+    * @throws IllegalStateException if the base character is read-only
+    */
+   void writeEntry(PropertyWriter writer) throws IOException
+   {
+      Character baseChar = getBaseChar();
+      if (baseChar.isReadOnly())
+      {
+         throw new IllegalStateException("cannot serialize a read-only character");
+      }
+      EntryWriter entryWriter = new EntryWriter(writer, baseChar);
+      baseChar.forEachField(entryWriter);
+      for (CharacterField field : CHARACTER_FIELDS)
+      {
+         if (field.getType() != PropertyType.STRUCT && (entryWriter.written & (1 << field.ordinal())) == 0)
+         {
+            writeHeader(writer, field);
+            writeValue(writer, baseChar, field);
+         }
+      }
+      writer.writeNone();
+   }
+
+   private static void writeHeader(PropertyWriter writer, PropertyField field) throws IOException
+   {
+      writer.write(field.getName());
+      writer.writePadding();
+      writer.write(field.getType().getName());
+      writer.writePadding();
+   }
+
+   // Writes the value computeValue would return, without creating it where
+   // possible
+   private void writeValue(PropertyWriter writer, Character baseChar, PropertyField field) throws IOException
+   {
+      Property<?> property = propertyMap != null ? propertyMap.get(field) : null;
+      PropertyValue baseValue = baseChar.get(field);
+      if (property == null && baseValue != null)
+      {
+         // Never edited, and the base value is the same as the computed one
+         baseValue.write(writer);
+         return;
+      }
       switch (field.getType())
       {
       case BOOL:
-         return new BoolPropertyValue(((BooleanProperty) property).get());
+         BoolPropertyValue.of(property != null && ((BooleanProperty) property).get()).write(writer);
+         break;
       case INT:
-         return new IntPropertyValue(((IntegerProperty) property).get());
+         IntPropertyValue.of(property != null ? ((IntegerProperty) property).get() : 0).write(writer);
+         break;
+      case STRING:
+         StringPropertyValue.write(writer, property != null ? ((StringProperty) property).get() : null);
+         break;
+      case NAME:
+         NamePropertyValue.of(property != null ? ((StringProperty) property).get() : null,
+               baseValue != null ? ((NamePropertyValue) baseValue).getNum() : 0).write(writer);
+         break;
+      default:
+         throw new AssertionError(String.format("Unhandled type: %s", field.getType()));
+      }
+   }
+
+   // Writes the appearance struct with all appearance fields in order
+   private void writeAppearance(PropertyWriter writer, Character baseChar, StructPropertyValue baseValue)
+         throws IOException
+   {
+      writeHeader(writer, CharacterField.APPEARANCE);
+      LengthCountingWriter counter = new LengthCountingWriter();
+      writeAppearanceEntries(counter, baseChar);
+      // total length (except this size integer)
+      writer.write(counter.getLength());
+      writer.writePadding();
+      writer.write(baseValue.getStructType());
+      writer.writePadding();
+      writeAppearanceEntries(writer, baseChar);
+   }
+
+   private void writeAppearanceEntries(PropertyWriter writer, Character baseChar) throws IOException
+   {
+      for (AppearanceField field : APPEARANCE_FIELDS)
+      {
+         if (isEditable(field))
+         {
+            writeHeader(writer, field);
+            writeValue(writer, baseChar, field);
+         }
+      }
+      writer.writeNone();
+   }
+
+   /**
+    * Returns the character that should be saved. If this character has not
+    * been edited, the base character is returned as is, so its original data
+    * is preserved.
+    *
+    * @return the character to save
+    */
+   public Character computeSavedChar()
+   {
+      return isEdited() ? computeEditedChar() : getBaseChar();
+   }
+
+   private PropertyValue computeValue(Character baseChar, PropertyField field)
+   {
+      Property<?> property = propertyMap != null ? propertyMap.get(field) : null;
+      if (property == null)
+      {
+         // Never edited, so the value is the same as when the property is
+         // created from the base value
+         property = createProperty(field, baseChar.get(field)).orElseThrow(AssertionError::new);
+      }
+      switch (field.getType())
+      {
+      case BOOL:
+         return BoolPropertyValue.of(((BooleanProperty) property).get());
+      case INT:
+         return IntPropertyValue.of(((IntegerProperty) property).get());
       case STRING:
          return new StringPropertyValue(((StringProperty) property).get());
       case NAME:
-         return new NamePropertyValue(((StringProperty) property).get(),
+         return NamePropertyValue.of(((StringProperty) property).get(),
                Optional.ofNullable(baseChar.get(field)).map(v -> ((NamePropertyValue) v).getNum()).orElse(0));
       default:
          throw new AssertionError(String.format("Unhandled type: %s", field.getType()));
@@ -149,19 +373,37 @@ public class EditableCharacter
 
    public BooleanProperty boolProperty(PropertyField field)
    {
-      return (BooleanProperty) propertyMap.computeIfAbsent(field,
-            f -> new SimpleBooleanProperty(this, field.getName()));
+      return (BooleanProperty) getOrCreateProperty(field);
    }
 
    public IntegerProperty intProperty(PropertyField field)
    {
-      return (IntegerProperty) propertyMap.computeIfAbsent(field,
-            f -> new SimpleIntegerProperty(this, field.getName()));
+      return (IntegerProperty) getOrCreateProperty(field);
    }
 
    public StringProperty strProperty(PropertyField field)
    {
-      return (StringProperty) propertyMap.computeIfAbsent(field, f -> new SimpleStringProperty(this, field.getName()));
+      return (StringProperty) getOrCreateProperty(field);
+   }
+
+   /**
+    * Returns the known fields whose values differ from the base character, in
+    * the order of {@link CharacterField} followed by {@link AppearanceField}.
+    *
+    * @return the edited fields
+    */
+   public List<PropertyField> getEditedFields()
+   {
+      if (dirty == null)
+      {
+         return new ArrayList<>();
+      }
+      List<PropertyField> fields = new ArrayList<>(dirty.cardinality());
+      for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+      {
+         fields.add(i < CHARACTER_FIELDS.length ? CHARACTER_FIELDS[i] : APPEARANCE_FIELDS[i - CHARACTER_FIELDS.length]);
+      }
+      return fields;
    }
 
    public boolean isEdited()
@@ -173,4 +415,42 @@ public class EditableCharacter
    {
       return edited.getReadOnlyProperty();
    }
+
+   // Writes the top-level fields of the base character, replacing the values
+   // of known fields
+   private final class EntryWriter implements Character.FieldVisitor
+   {
+      private final PropertyWriter writer;
+      private final Character baseChar;
+      // Character fields that were written, by ordinal
+      private int written;
+
+      private EntryWriter(PropertyWriter writer, Character baseChar)
+      {
+         this.writer = writer;
+         this.baseChar = baseChar;
+      }
+
+      @Override
+      public void visit(PropertyField field, PropertyValue value) throws IOException
+      {
+         if (!(field instanceof CharacterField))
+         {
+            writeHeader(writer, field);
+            value.write(writer);
+            return;
+         }
+         written |= 1 << ((CharacterField) field).ordinal();
+         if (field.getType() == PropertyType.STRUCT)
+         {
+            // Only the appearance is a struct
+            writeAppearance(writer, baseChar, (StructPropertyValue) value);
+         }
+         else
+         {
+            writeHeader(writer, field);
+            writeValue(writer, baseChar, field);
+         }
+      }
+   }
 }
@@ -0,0 +1,178 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ModifiableObservableListBase;
+
+/**
+ * Observable list of the editable characters of a pool. The editable character
+ * of each base character is only created when its index is first accessed, so
+ * the base characters of a lazily read pool are not decoded until they are
+ * used. Like a list with an extractor on {@link EditableCharacter#editedProperty()},
+ * an update is fired whenever a character becomes edited or is reverted. A
+ * character must not be in the list more than once.
+ *
+ * @author Zach Wassynger
+ */
+final class EditableCharacterList extends ModifiableObservableListBase<EditableCharacter>
+{
+   private final List<Character> baseCharacters;
+   // Called for each editable character created for a base character
+   private final Consumer<EditableCharacter> onCreate;
+   private final ChangeListener<Boolean> editedListener;
+   // Characters in list order, or null for base characters that were never
+   // accessed, in which case the index of the base character is in baseIndices
+   private EditableCharacter[] characters;
+   private int[] baseIndices;
+   // Index of each character that was created or added, so updates do not
+   // have to search for it
+   private final Map<EditableCharacter, Integer> positions;
+   private int size;
+
+   /**
+    * Creates a new list of the given base characters, which must not change.
+    *
+    * @param baseCharacters the base characters, non-null
+    * @param onCreate       called with each editable character created for a
+    *                       base character, non-null
+    */
+   EditableCharacterList(List<Character> baseCharacters, Consumer<EditableCharacter> onCreate)
+   {
+      this.baseCharacters = Objects.requireNonNull(baseCharacters);
+      this.onCreate = Objects.requireNonNull(onCreate);
+      // The edited property of each character has the character as its bean
+      this.editedListener = (obs, oldValue, newValue) -> fireUpdate(
+            (EditableCharacter) ((ReadOnlyProperty<?>) obs).getBean());
+      this.positions = new IdentityHashMap<>();
+      this.size = baseCharacters.size();
+      this.characters = new EditableCharacter[Math.max(size, 8)];
+      this.baseIndices = new int[characters.length];
+      Arrays.setAll(baseIndices, i -> i);
+   }
+
+   @Override
+   public EditableCharacter get(int index)
+   {
+      if (index < 0 || index >= size)
+      {
+         throw new IndexOutOfBoundsException(String.format("index %d out of bounds for size %d", index, size));
+      }
+      EditableCharacter character = characters[index];
+      if (character == null)
+      {
+         character = EditableCharacter.create(baseCharacters, baseIndices[index]);
+         characters[index] = character;
+         positions.put(character, index);
+         character.editedProperty().addListener(editedListener);
+         onCreate.accept(character);
+      }
+      return character;
+   }
+
+   /**
+    * Returns the character at the given index, without creating it.
+    *
+    * @param index the given index
+    * @return the character, or null if it was never accessed
+    */
+   EditableCharacter getIfCreated(int index)
+   {
+      if (index < 0 || index >= size)
+      {
+         throw new IndexOutOfBoundsException(String.format("index %d out of bounds for size %d", index, size));
+      }
+      return characters[index];
+   }
+
+   /**
+    * Returns the index of the base character at the given index, which is only
+    * defined for characters that were never accessed.
+    *
+    * @param index the given index
+    * @return the index in the base characters
+    */
+   int getBaseIndex(int index)
+   {
+      return baseIndices[index];
+   }
+
+   @Override
+   public int size()
+   {
+      return size;
+   }
+
+   @Override
+   protected void doAdd(int index, EditableCharacter element)
+   {
+      Objects.requireNonNull(element);
+      if (size == characters.length)
+      {
+         characters = Arrays.copyOf(characters, size * 2);
+         baseIndices = Arrays.copyOf(baseIndices, size * 2);
+      }
+      System.arraycopy(characters, index, characters, index + 1, size - index);
+      System.arraycopy(baseIndices, index, baseIndices, index + 1, size - index);
+      characters[index] = element;
+      size++;
+      updatePositions(index);
+      element.editedProperty().addListener(editedListener);
+   }
+
+   @Override
+   protected EditableCharacter doSet(int index, EditableCharacter element)
+   {
+      Objects.requireNonNull(element);
+      EditableCharacter old = get(index);
+      old.editedProperty().removeListener(editedListener);
+      positions.remove(old);
+      characters[index] = element;
+      positions.put(element, index);
+      element.editedProperty().addListener(editedListener);
+      return old;
+   }
+
+   @Override
+   protected EditableCharacter doRemove(int index)
+   {
+      EditableCharacter old = get(index);
+      old.editedProperty().removeListener(editedListener);
+      positions.remove(old);
+      System.arraycopy(characters, index + 1, characters, index, size - index - 1);
+      System.arraycopy(baseIndices, index + 1, baseIndices, index, size - index - 1);
+      characters[--size] = null;
+      updatePositions(index);
+      return old;
+   }
+
+   // Records the index of each created character from the given index on,
+   // after characters were shifted
+   private void updatePositions(int from)
+   {
+      for (int i = from; i < size; i++)
+      {
+         if (characters[i] != null)
+         {
+            positions.put(characters[i], i);
+         }
+      }
+   }
+
+   private void fireUpdate(EditableCharacter character)
+   {
+      Integer index = positions.get(character);
+      if (index != null)
+      {
+         beginChange();
+         nextUpdate(index);
+         endChange();
+      }
+   }
+}
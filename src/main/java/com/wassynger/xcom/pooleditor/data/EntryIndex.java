@@ -0,0 +1,211 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Records the location of each entry of an array within a buffer, so entries
+ * can be decoded on demand instead of up front.
+ *
+ * @author Zach Wassynger
+ */
+final class EntryIndex
+{
+   /**
+    * Scans over the given number of entries, starting at the current position
+    * of the decoder. The decoder is left after the last entry.
+    *
+    * @param decoder     the decoder positioned at the first entry, non-null
+    * @param buffer      the buffer that is being decoded, non-null
+    * @param source      the file the buffer was loaded from, non-null
+    * @param numElements the number of entries
+    * @return the index of the entries
+    * @throws IOException if the data is malformed
+    */
+   static EntryIndex scan(PropertyDecoder decoder, ByteBuffer buffer, PoolSource source, int numElements)
+         throws IOException
+   {
+      if (numElements < 0)
+      {
+         throw new IOException(String.format("pos %d: invalid num elements %d", decoder.position(), numElements));
+      }
+      int[] offsets = new int[numElements];
+      int[] lengths = new int[numElements];
+      for (int i = 0; i < numElements; i++)
+      {
+         offsets[i] = decoder.position();
+         decoder.skipProperties();
+         lengths[i] = decoder.position() - offsets[i];
+      }
+      return new EntryIndex(buffer, source, offsets, lengths);
+   }
+
+   private final ByteBuffer buffer;
+   private final PoolSource source;
+   private final int[] offsets;
+   private final int[] lengths;
+
+   private EntryIndex(ByteBuffer buffer, PoolSource source, int[] offsets, int[] lengths)
+   {
+      this.buffer = buffer;
+      this.source = source;
+      this.offsets = offsets;
+      this.lengths = lengths;
+   }
+
+   /**
+    * Returns the number of indexed entries.
+    *
+    * @return the number of entries
+    */
+   int size()
+   {
+      return offsets.length;
+   }
+
+   /**
+    * Returns the absolute offset of the entry at the given index.
+    *
+    * @param index the entry index
+    * @return the offset in bytes
+    */
+   int offset(int index)
+   {
+      return offsets[index];
+   }
+
+   /**
+    * Returns the serialized size of the entry at the given index, including
+    * the trailing 'None'.
+    *
+    * @param index the entry index
+    * @return the size in bytes
+    */
+   int length(int index)
+   {
+      return lengths[index];
+   }
+
+   /**
+    * Decodes the properties of the entry at the given index.
+    *
+    * @param index the entry index
+    * @return the properties of the entry
+    * @throws IOException if the data is malformed
+    */
+   List<Property> decode(int index) throws IOException
+   {
+      return new PropertyDecoder(new BufferByteSource(buffer, offsets[index])).readProperties();
+   }
+
+   /**
+    * Returns a view of the entries, which are decoded each time they are
+    * accessed.
+    *
+    * @return the entries
+    */
+   List<ArrayPropertyValue.Entry> entries()
+   {
+      return new EntryList();
+   }
+
+   /**
+    * Returns a view of the entries as characters. Characters are decoded the
+    * first time they are accessed, and are only softly held afterwards, so a
+    * character that was dropped is decoded into a new instance when accessed
+    * again. Each character records the location of its entry within the
+    * source file. The view may be accessed from multiple threads.
+    *
+    * @return the characters
+    */
+   List<Character> characters()
+   {
+      return new CharacterList();
+   }
+
+   /**
+    * Decodes all entries as characters, preserving their order. In parallel
+    * mode, the entries are decoded on the common fork/join pool.
+    *
+    * @param parallel whether to decode in parallel
+    * @return the characters
+    * @throws UncheckedIOException if an entry is malformed
+    */
+   List<Character> decodeCharacters(boolean parallel)
+   {
+      Character[] characters = new Character[offsets.length];
+      IntStream indices = IntStream.range(0, offsets.length);
+      (parallel ? indices.parallel() : indices).forEach(i -> characters[i] = decodeCharacter(i));
+      return new ArrayList<>(Arrays.asList(characters));
+   }
+
+   private Character decodeCharacter(int index)
+   {
+      try
+      {
+         return Character.fromProperties(decode(index), source, offsets[index], lengths[index]);
+      }
+      catch (IOException e)
+      {
+         throw new UncheckedIOException(String.format("failed to decode entry %d", index), e);
+      }
+   }
+
+   private class EntryList extends AbstractList<ArrayPropertyValue.Entry> implements RandomAccess
+   {
+      @Override
+      public ArrayPropertyValue.Entry get(int index)
+      {
+         try
+         {
+            return new ArrayPropertyValue.Entry(decode(index));
+         }
+         catch (IOException e)
+         {
+            throw new UncheckedIOException(String.format("failed to decode entry %d", index), e);
+         }
+      }
+
+      @Override
+      public int size()
+      {
+         return offsets.length;
+      }
+   }
+
+   private class CharacterList extends AbstractList<Character> implements RandomAccess
+   {
+      // Threads that decode the same character at once may each cache their
+      // own instance, which is harmless since instances may differ anyway
+      private final AtomicReferenceArray<SoftReference<Character>> cache =
+            new AtomicReferenceArray<>(offsets.length);
+
+      @Override
+      public Character get(int index)
+      {
+         SoftReference<Character> ref = cache.get(index);
+         Character character = ref != null ? ref.get() : null;
+         if (character == null)
+         {
+            character = decodeCharacter(index);
+            cache.set(index, new SoftReference<>(character));
+         }
+         return character;
+      }
+
+      @Override
+      public int size()
+      {
+         return offsets.length;
+      }
+   }
+}
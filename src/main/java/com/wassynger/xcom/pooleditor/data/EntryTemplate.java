@@ -0,0 +1,403 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Encodes characters that share a layout, which is the same fields holding the
+ * same types of values in the same order, including the children of any
+ * structs. The layout is compiled once into the constant bytes of the names,
+ * types, paddings and fixed sizes, with slots in between for the values that
+ * differ between characters. Encoding a character of the layout then only
+ * copies the constant bytes and fills in the slots, and the size of each struct
+ * is filled in once its children are written.
+ * <p>
+ * A template holds the values of the character it was last bound to, so it
+ * must only be used by one thread at a time.
+ *
+ * @author Zach Wassynger
+ */
+final class EntryTemplate
+{
+   private enum Slot
+   {
+      INT,
+      BOOL,
+      STRING,
+      NAME,
+      STRUCT_START,
+      STRUCT_END
+   }
+
+   // Constant bytes, where the run before each slot starts at the slot's index
+   // in runStarts, and the last run ends the entry
+   private final byte[] constants;
+   private final int[] runStarts;
+   private final Slot[] slots;
+   // Field of each slot, or null for the end of a struct
+   private final PropertyField[] fields;
+   // Struct type of each struct start, or null for other slots
+   private final String[] structTypes;
+   // Bytes from the size of each struct to its first child, stored at the
+   // struct end
+   private final int[] structHeaderLengths;
+   // Length of the constants and the values of fixed size
+   private final int fixedLength;
+
+   // State of the bound character
+   private final PropertyValue[] values;
+   private final int[] structStarts;
+   private final Character.FieldVisitor binder = this::bindField;
+   private int next;
+   private int boundLength;
+   private boolean matches;
+
+   private EntryTemplate(Compiler compiler)
+   {
+      this.constants = Arrays.copyOf(compiler.constants, compiler.length);
+      this.runStarts = compiler.runStarts.stream().mapToInt(Integer::intValue).toArray();
+      this.slots = compiler.slots.toArray(new Slot[0]);
+      this.fields = compiler.fields.toArray(new PropertyField[0]);
+      this.structTypes = compiler.structTypes.toArray(new String[0]);
+      this.structHeaderLengths = compiler.structHeaderLengths.stream().mapToInt(Integer::intValue).toArray();
+      this.fixedLength = compiler.length + compiler.fixedValueLength;
+      this.values = new PropertyValue[slots.length];
+      this.structStarts = new int[compiler.maxDepth];
+   }
+
+   /**
+    * Compiles the layout of the given character into a template.
+    *
+    * @param character the given character, non-null
+    * @return the template, or empty if the character is read-only or holds a
+    *       type of value that cannot be templated
+    */
+   static Optional<EntryTemplate> compile(Character character)
+   {
+      if (character.isReadOnly())
+      {
+         return Optional.empty();
+      }
+      Compiler compiler = new Compiler();
+      try
+      {
+         character.forEachField(compiler);
+      }
+      catch (IOException e)
+      {
+         // Compiling never does any I/O
+         throw new UncheckedIOException(e);
+      }
+      if (!compiler.supported)
+      {
+         return Optional.empty();
+      }
+      compiler.writeNone();
+      compiler.runStarts.add(compiler.length);
+      return Optional.of(new EntryTemplate(compiler));
+   }
+
+   /**
+    * Binds the given character to this template, if it has the layout of this
+    * template.
+    *
+    * @param character the given character, non-null
+    * @return the size of the encoded entry in bytes, or -1 if the character
+    *       has a different layout
+    */
+   int bind(Character character)
+   {
+      if (character.isReadOnly())
+      {
+         return -1;
+      }
+      next = 0;
+      boundLength = fixedLength;
+      matches = true;
+      try
+      {
+         character.forEachField(binder);
+      }
+      catch (IOException e)
+      {
+         // Binding never does any I/O
+         throw new UncheckedIOException(e);
+      }
+      return matches && next == slots.length ? boundLength : -1;
+   }
+
+   private void bindField(PropertyField field, PropertyValue value)
+   {
+      if (matches)
+      {
+         matches = bindValue(field, value);
+      }
+   }
+
+   private boolean bindValue(PropertyField field, PropertyValue value)
+   {
+      int slot = next;
+      if (slot >= slots.length || !field.equals(fields[slot]))
+      {
+         return false;
+      }
+      switch (slots[slot])
+      {
+      case INT:
+         if (!(value instanceof IntPropertyValue))
+         {
+            return false;
+         }
+         break;
+      case BOOL:
+         if (!(value instanceof BoolPropertyValue))
+         {
+            return false;
+         }
+         break;
+      case STRING:
+         if (!(value instanceof StringPropertyValue))
+         {
+            return false;
+         }
+         boundLength += value.length();
+         break;
+      case NAME:
+         if (!(value instanceof NamePropertyValue))
+         {
+            return false;
+         }
+         boundLength += value.length();
+         break;
+      case STRUCT_START:
+         return value instanceof StructPropertyValue && bindStruct(slot, (StructPropertyValue) value);
+      default:
+         return false;
+      }
+      values[slot] = value;
+      next = slot + 1;
+      return true;
+   }
+
+   private boolean bindStruct(int slot, StructPropertyValue struct)
+   {
+      if (!Objects.equals(structTypes[slot], struct.getStructType()))
+      {
+         return false;
+      }
+      values[slot] = struct;
+      next = slot + 1;
+      for (Property child : struct.getEntries())
+      {
+         if (!bindValue(child.getField(), child.getValue()))
+         {
+            return false;
+         }
+      }
+      if (next >= slots.length || slots[next] != Slot.STRUCT_END)
+      {
+         return false;
+      }
+      next++;
+      return true;
+   }
+
+   /**
+    * Encodes the character that was last bound to this template.
+    *
+    * @param encoder the encoder, non-null
+    * @throws IOException if some error occurred while writing
+    * @see #bind(Character)
+    */
+   void encode(PropertyEncoder encoder) throws IOException
+   {
+      int depth = 0;
+      for (int i = 0; i < slots.length; i++)
+      {
+         encoder.write(constants, runStarts[i], runStarts[i + 1] - runStarts[i]);
+         switch (slots[i])
+         {
+         case INT:
+            encoder.write(((IntPropertyValue) values[i]).getValue());
+            break;
+         case BOOL:
+            encoder.write((byte) (((BoolPropertyValue) values[i]).getValue() ? 1 : 0));
+            break;
+         case STRING:
+         case NAME:
+            values[i].write(encoder);
+            break;
+         case STRUCT_START:
+            // Filled in at the end of the struct
+            structStarts[depth++] = encoder.position();
+            encoder.write(0);
+            break;
+         case STRUCT_END:
+            int sizePos = structStarts[--depth];
+            encoder.writeAt(sizePos, encoder.position() - sizePos - structHeaderLengths[i]);
+            break;
+         default:
+            throw new AssertionError(String.format("unhandled slot: %s", slots[i]));
+         }
+      }
+      int last = slots.length;
+      encoder.write(constants, runStarts[last], runStarts[last + 1] - runStarts[last]);
+   }
+
+   private static final class Compiler implements Character.FieldVisitor
+   {
+      private final List<Integer> runStarts = new ArrayList<>();
+      private final List<Slot> slots = new ArrayList<>();
+      private final List<PropertyField> fields = new ArrayList<>();
+      private final List<String> structTypes = new ArrayList<>();
+      private final List<Integer> structHeaderLengths = new ArrayList<>();
+      private byte[] constants = new byte[1024];
+      private int length;
+      private int fixedValueLength;
+      private int depth;
+      private int maxDepth;
+      private boolean supported = true;
+
+      private Compiler()
+      {
+         runStarts.add(0);
+      }
+
+      @Override
+      public void visit(PropertyField field, PropertyValue value)
+      {
+         if (supported)
+         {
+            supported = add(field, value);
+         }
+      }
+
+      private boolean add(PropertyField field, PropertyValue value)
+      {
+         if (value instanceof IntPropertyValue)
+         {
+            writeHeader(field);
+            // size + padding
+            writeInt(Integer.BYTES);
+            writeInt(0);
+            addSlot(Slot.INT, field, null, 0);
+            fixedValueLength += Integer.BYTES;
+         }
+         else if (value instanceof BoolPropertyValue)
+         {
+            writeHeader(field);
+            // size + padding
+            writeInt(0);
+            writeInt(0);
+            addSlot(Slot.BOOL, field, null, 0);
+            fixedValueLength += Byte.BYTES;
+         }
+         else if (value instanceof StringPropertyValue)
+         {
+            writeHeader(field);
+            addSlot(Slot.STRING, field, null, 0);
+         }
+         else if (value instanceof NamePropertyValue)
+         {
+            writeHeader(field);
+            addSlot(Slot.NAME, field, null, 0);
+         }
+         else if (value instanceof StructPropertyValue)
+         {
+            return addStruct(field, (StructPropertyValue) value);
+         }
+         else
+         {
+            return false;
+         }
+         return true;
+      }
+
+      private boolean addStruct(PropertyField field, StructPropertyValue struct)
+      {
+         writeHeader(field);
+         addSlot(Slot.STRUCT_START, field, struct.getStructType(), 0);
+         fixedValueLength += Integer.BYTES;
+         maxDepth = Math.max(maxDepth, ++depth);
+         int headerStart = length;
+         // padding + struct name + padding
+         writeInt(0);
+         writeString(struct.getStructType());
+         writeInt(0);
+         int headerLength = Integer.BYTES + length - headerStart;
+         for (Property child : struct.getEntries())
+         {
+            if (!add(child.getField(), child.getValue()))
+            {
+               return false;
+            }
+         }
+         writeNone();
+         addSlot(Slot.STRUCT_END, null, null, headerLength);
+         depth--;
+         return true;
+      }
+
+      private void addSlot(Slot slot, PropertyField field, String structType, int structHeaderLength)
+      {
+         slots.add(slot);
+         fields.add(field);
+         structTypes.add(structType);
+         structHeaderLengths.add(structHeaderLength);
+         runStarts.add(length);
+      }
+
+      private void writeHeader(PropertyField field)
+      {
+         writeString(field.getName());
+         writeInt(0);
+         writeString(field.getType().getName());
+         writeInt(0);
+      }
+
+      private void writeNone()
+      {
+         writeString("None");
+         writeInt(0);
+      }
+
+      private void writeString(String str)
+      {
+         if (str == null || str.isEmpty())
+         {
+            writeInt(0);
+            return;
+         }
+         byte[] data = str.getBytes(Property.STRING_CHARSET);
+         // size + 1 (for null terminator)
+         writeInt(data.length + 1);
+         ensureCapacity(data.length + 1);
+         System.arraycopy(data, 0, constants, length, data.length);
+         length += data.length;
+         constants[length++] = 0;
+      }
+
+      private void writeInt(int value)
+      {
+         ensureCapacity(Integer.BYTES);
+         // Little endian
+         for (int i = 0; i < Integer.BYTES; i++)
+         {
+            constants[length++] = (byte) (value >>> (8 * i));
+         }
+      }
+
+      private void ensureCapacity(int numBytes)
+      {
+         if (length + numBytes > constants.length)
+         {
+            constants = Arrays.copyOf(constants, Math.max(constants.length * 2, length + numBytes));
+         }
+      }
+   }
+}
@@ -0,0 +1,294 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Implementation of {@link CharacterPoolWriter} that only encodes characters
+ * that are new or were changed since they were read. The entries of all other
+ * characters are copied as raw bytes from the file they were read from, as
+ * long as that file has not changed since. Consecutive entries are copied with
+ * a single channel transfer. The output is identical to encoding every
+ * character.
+ * <p>
+ * Since the file being written is usually the file the characters were read
+ * from, the pool is written to a temporary file that replaces the actual file
+ * when the writer is closed. If writing fails, the actual file is left as is.
+ *
+ * @author Zach Wassynger
+ */
+final class IncrementalCharacterPoolWriter implements CharacterPoolWriter
+{
+   private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+   private final Path path;
+   private final Path tempPath;
+   private final FileChannel channel;
+   // Open source files, or null for sources that have changed since being read
+   private final Map<PoolSource, FileChannel> sources;
+   // Encodes the characters that cannot be copied
+   private final CharacterEncoder charEncoder;
+   // Encoded data that has yet to be written
+   private ByteBuffer buffer;
+   private boolean written;
+
+   // Range of source data that has yet to be copied
+   private FileChannel runChannel;
+   private PoolSource runSource;
+   private long runStart;
+   private long runEnd;
+
+   IncrementalCharacterPoolWriter(Path path) throws IOException
+   {
+      this.path = Objects.requireNonNull(path);
+      this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+      this.channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+      this.sources = new HashMap<>();
+      this.charEncoder = new CharacterEncoder();
+      this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+      this.written = false;
+   }
+
+   /**
+    * Writes the given character pool to the temporary file. The actual file is
+    * only replaced once the writer is closed.
+    *
+    * @param pool the given pool, non-null
+    * @throws IOException              if some error occurred while writing to file, or
+    *                                  a source file changed while being copied
+    * @throws NullPointerException     if the pool is null
+    * @throws IllegalArgumentException if the pool is read-only
+    */
+   @Override
+   public void write(CharacterPool pool) throws IOException
+   {
+      if (pool.isReadOnly())
+      {
+         throw new IllegalArgumentException(String.format("cannot write read-only pool '%s'", pool.getName()));
+      }
+      written = false;
+      List<Property> headers = pool.toHeaders();
+      writeStart(headers, pool.getCharacters().size());
+      for (Character character : pool.getCharacters())
+      {
+         writeCharacter(character);
+      }
+      finish(headers);
+   }
+
+   /**
+    * Writes the given snapshot of an editable pool to the temporary file.
+    * Characters that were not edited are copied or encoded from their base
+    * character, and edited characters are encoded straight from their
+    * properties. The actual file is only replaced once the writer is closed.
+    *
+    * @param pool     the given snapshot, non-null
+    * @param fileName the file name to store in the pool
+    * @throws IOException              if some error occurred while writing to file, or
+    *                                  a source file changed while being copied
+    * @throws IllegalArgumentException if the pool is read-only
+    */
+   @Override
+   public void write(EditableCharPool.Snapshot pool, String fileName) throws IOException
+   {
+      if (pool.getBasePool().isReadOnly())
+      {
+         throw new IllegalArgumentException(
+               String.format("cannot write read-only pool '%s'", pool.getBasePool().getName()));
+      }
+      written = false;
+      List<Property> headers = CharacterPool.toHeaders(fileName);
+      writeStart(headers, pool.size());
+      for (int i = 0; i < pool.size(); i++)
+      {
+         EditableCharacter character = pool.getEdited(i);
+         if (character != null)
+         {
+            PropertyEncoder encoder = prepareEncoder(character.computeEntryLength());
+            character.writeEntry(encoder);
+            buffer.position(encoder.position());
+         }
+         else
+         {
+            writeCharacter(pool.getBaseChar(i));
+         }
+      }
+      finish(headers);
+   }
+
+   private void writeStart(List<Property> headers, int numCharacters) throws IOException
+   {
+      PropertyEncoder encoder = prepareEncoder(CharacterPool.computeStartLength(headers));
+      CharacterPool.writeStart(encoder, headers, numCharacters);
+      buffer.position(encoder.position());
+   }
+
+   private void writeCharacter(Character character) throws IOException
+   {
+      FileChannel source = getSourceChannel(character);
+      if (source != null)
+      {
+         copy(source, character);
+      }
+      else
+      {
+         PropertyEncoder encoder = prepareEncoder(charEncoder.prepare(character));
+         charEncoder.encode(encoder);
+         buffer.position(encoder.position());
+      }
+   }
+
+   // Writes the end of the pool, and checks the copied sources
+   private void finish(List<Property> headers) throws IOException
+   {
+      PropertyEncoder encoder = prepareEncoder(Property.NONE_NUM_BYTES);
+      ArrayPropertyValue.writeEnd(encoder, headers);
+      buffer.position(encoder.position());
+      flushRun();
+      flushBuffer();
+      for (Map.Entry<PoolSource, FileChannel> entry : sources.entrySet())
+      {
+         // Ensure no source changed while it was being copied
+         if (entry.getValue() != null && !entry.getKey().isUnchanged())
+         {
+            throw new IOException(String.format("%s changed while saving", entry.getKey().getPath()));
+         }
+      }
+      written = true;
+   }
+
+   // Returns the channel to copy the character from, or null if it must be
+   // encoded instead
+   private FileChannel getSourceChannel(Character character) throws IOException
+   {
+      PoolSource source = character.getSource();
+      if (source == null || character.getSourceOffset() < 0 ||
+          character.getSourceOffset() + character.getSourceLength() > source.getSize())
+      {
+         return null;
+      }
+      if (!sources.containsKey(source))
+      {
+         sources.put(source,
+               source.isUnchanged() ? FileChannel.open(source.getPath(), StandardOpenOption.READ) : null);
+      }
+      return sources.get(source);
+   }
+
+   private void copy(FileChannel source, Character character) throws IOException
+   {
+      if (runChannel == source && runEnd == character.getSourceOffset())
+      {
+         // Extend the current range
+         runEnd += character.getSourceLength();
+         return;
+      }
+      flushRun();
+      runChannel = source;
+      runSource = character.getSource();
+      runStart = character.getSourceOffset();
+      runEnd = runStart + character.getSourceLength();
+   }
+
+   // Returns an encoder into the buffer that has room for the given size
+   private PropertyEncoder prepareEncoder(int size) throws IOException
+   {
+      // Encoded data comes after any range that has yet to be copied
+      flushRun();
+      if (buffer.remaining() < size)
+      {
+         flushBuffer();
+         if (buffer.capacity() < size)
+         {
+            buffer = ByteBuffer.allocate(size);
+         }
+      }
+      return new PropertyEncoder(buffer);
+   }
+
+   private void flushRun() throws IOException
+   {
+      if (runChannel == null)
+      {
+         return;
+      }
+      // Encoded data comes before the range
+      flushBuffer();
+      long position = runStart;
+      while (position < runEnd)
+      {
+         long transferred = runChannel.transferTo(position, runEnd - position, channel);
+         if (transferred <= 0)
+         {
+            throw new IOException(String.format("%s changed while saving", runSource.getPath()));
+         }
+         position += transferred;
+      }
+      runChannel = null;
+      runSource = null;
+   }
+
+   private void flushBuffer() throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+
+   /**
+    * Closes the writer. If the pool was written successfully, the actual file
+    * is replaced by the temporary file. Otherwise, the temporary file is
+    * deleted.
+    *
+    * @throws IOException if some error occurred while replacing the file
+    */
+   @Override
+   public void close() throws IOException
+   {
+      try
+      {
+         for (FileChannel source : sources.values())
+         {
+            if (source != null)
+            {
+               source.close();
+            }
+         }
+         channel.close();
+         if (written)
+         {
+            replace();
+         }
+      }
+      finally
+      {
+         Files.deleteIfExists(tempPath);
+      }
+   }
+
+   private void replace() throws IOException
+   {
+      try
+      {
+         Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+         Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+}
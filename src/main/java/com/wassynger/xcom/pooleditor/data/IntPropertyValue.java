@@ -5,9 +5,34 @@ import java.util.Objects;
 
 class IntPropertyValue implements PropertyValue
 {
+   // Range of values that are shared, which covers the indices used for
+   // colors, tints and such
+   private static final int MIN_CACHED = -128;
+   private static final int MAX_CACHED = 1023;
+   private static final IntPropertyValue[] CACHE = new IntPropertyValue[MAX_CACHED - MIN_CACHED + 1];
+
+   static
+   {
+      for (int i = 0; i < CACHE.length; i++)
+      {
+         CACHE[i] = new IntPropertyValue(MIN_CACHED + i);
+      }
+   }
+
+   /**
+    * Returns the value for the given int. Small values are shared.
+    *
+    * @param value the given int
+    * @return the value
+    */
+   static IntPropertyValue of(int value)
+   {
+      return value >= MIN_CACHED && value <= MAX_CACHED ? CACHE[value - MIN_CACHED] : new IntPropertyValue(value);
+   }
+
    private final int value;
 
-   public IntPropertyValue(int value)
+   private IntPropertyValue(int value)
    {
       this.value = value;
    }
@@ -0,0 +1,65 @@
+package com.wassynger.xcom.pooleditor.data;
+
+/**
+ * Implementation of {@link PropertyWriter} that only counts the number of
+ * bytes that would be written. Used to size data that is encoded on the fly,
+ * which guarantees the size matches what is actually written.
+ *
+ * @author Zach Wassynger
+ */
+final class LengthCountingWriter implements PropertyWriter
+{
+   private int length;
+
+   /**
+    * Returns the number of bytes written so far.
+    *
+    * @return the number of bytes
+    */
+   int getLength()
+   {
+      return length;
+   }
+
+   @Override
+   public void write(Property property)
+   {
+      length += property != null ? property.computeLength() : Property.NONE_NUM_BYTES;
+   }
+
+   @Override
+   public void write(byte value)
+   {
+      length += Byte.BYTES;
+   }
+
+   @Override
+   public void write(int value)
+   {
+      length += Integer.BYTES;
+   }
+
+   @Override
+   public void write(String str)
+   {
+      length += Property.computeStringNumBytes(str);
+   }
+
+   @Override
+   public void writePadding()
+   {
+      length += Integer.BYTES;
+   }
+
+   @Override
+   public void writeNone()
+   {
+      length += Property.NONE_NUM_BYTES;
+   }
+
+   @Override
+   public void close()
+   {
+      // Nothing to release
+   }
+}
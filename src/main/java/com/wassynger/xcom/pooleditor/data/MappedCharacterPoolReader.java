@@ -0,0 +1,152 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reads in {@link CharacterPool} from a file that is loaded into memory as a
+ * whole. Small files are read into a heap buffer, while larger files are
+ * memory mapped. Decoding is done by a {@link PropertyDecoder}, either up front
+ * (sequentially or in parallel) or on demand for each character.
+ *
+ * @author Zach Wassynger
+ */
+final class MappedCharacterPoolReader implements CharacterPoolReader
+{
+   // Files larger than this are memory mapped instead of read onto the heap.
+   // Mapping is avoided for typical pools since the mapping keeps the file
+   // locked (on some platforms) until it is garbage collected
+   private static final long MAP_THRESHOLD = 64L * 1024L * 1024L;
+   // Pools with fewer characters than this are not worth decoding in parallel
+   private static final int PARALLEL_THRESHOLD = 256;
+
+   /**
+    * Loads the entire contents of the given file into a little endian buffer.
+    *
+    * @param path the given file, non-null
+    * @return the buffer containing the file data
+    * @throws IOException if some error occurred while reading the file
+    */
+   static ByteBuffer load(Path path) throws IOException
+   {
+      return load(path, true);
+   }
+
+   /**
+    * Loads the entire contents of the given file into a little endian buffer.
+    * A buffer that is kept after reading must not be mapped, since the mapping
+    * would keep the file locked for as long as the buffer is used.
+    *
+    * @param path   the given file, non-null
+    * @param mayMap whether large files may be memory mapped
+    * @return the buffer containing the file data
+    * @throws IOException if some error occurred while reading the file
+    */
+   static ByteBuffer load(Path path, boolean mayMap) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+      {
+         long size = channel.size();
+         if (size > Integer.MAX_VALUE)
+         {
+            throw new IOException(String.format("file too large: %d bytes", size));
+         }
+         ByteBuffer buffer;
+         if (mayMap && size > MAP_THRESHOLD)
+         {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         }
+         else
+         {
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining())
+            {
+               if (channel.read(buffer) == -1)
+               {
+                  throw new IOException(String.format("unexpected end of file at %d", buffer.position()));
+               }
+            }
+            buffer.flip();
+         }
+         return buffer.order(ByteOrder.LITTLE_ENDIAN);
+      }
+   }
+
+   private final Path path;
+   private final Mode mode;
+
+   MappedCharacterPoolReader(Path path, Mode mode)
+   {
+      this.path = Objects.requireNonNull(path);
+      this.mode = Objects.requireNonNull(mode);
+   }
+
+   /**
+    * Reads in the character pool from the internal file.
+    *
+    * @return the parsed character pool
+    * @throws IOException if some error occurred while reading the file
+    */
+   @Override
+   public CharacterPool read() throws IOException
+   {
+      if (mode == Mode.MAPPED)
+      {
+         return CharacterPool.fromProperties(path, new PropertyDecoder(load(path)).readAll());
+      }
+      // The buffer is held by the pool to decode its characters on demand, so
+      // it must not be mapped
+      ByteBuffer buffer = load(path, mode != Mode.LAZY);
+      // Identify the data that was read, so any later change invalidates the
+      // recorded entry locations
+      PoolSource source = PoolSource.of(path, buffer);
+      switch (mode)
+      {
+      case LAZY:
+         return CharacterPool.fromProperties(path, new PropertyDecoder(buffer, source).readAll());
+      case PARALLEL:
+         // Scan for the bounds of each character first, then decode them all
+         try
+         {
+            return CharacterPool.fromProperties(path, new PropertyDecoder(buffer, source).readAll(),
+                  index -> index.decodeCharacters(index.size() >= PARALLEL_THRESHOLD), false);
+         }
+         catch (UncheckedIOException e)
+         {
+            // Malformed entries fail the same way as in the other modes
+            throw e.getCause();
+         }
+      default:
+         throw new AssertionError(String.format("unhandled mode: %s", mode));
+      }
+   }
+
+   /**
+    * Reads in the character pool from the internal file, only decoding the
+    * given fields. This is always done in a single sequential pass.
+    *
+    * @param fields the fields to decode, non-null
+    * @return the parsed, read-only character pool
+    * @throws IOException if some error occurred while reading the file
+    */
+   @Override
+   public CharacterPool read(Set<? extends PropertyField> fields) throws IOException
+   {
+      PropertyDecoder decoder = new PropertyDecoder(load(path));
+      decoder.setProjection(fields);
+      return CharacterPool.fromProperties(path, decoder.readAll(), EntryIndex::characters, true);
+   }
+
+   @Override
+   public void close()
+   {
+      // Nothing is held open between reads
+   }
+}
@@ -5,13 +5,47 @@ import java.util.Objects;
 
 class NamePropertyValue implements PropertyValue
 {
+   // Number of slots in the cache of shared values, must be a power of two
+   private static final int CACHE_SIZE = 4096;
+   // Direct-mapped, so a value only replaces the one in its slot. Lookups are
+   // safe from multiple threads without locking, since the fields of a value
+   // are final.
+   private static final NamePropertyValue[] CACHE = new NamePropertyValue[CACHE_SIZE];
+
+   /**
+    * Returns the value for the given name and number. Recently used values are
+    * shared, so repeated names such as 'None' or common part names are only
+    * held once.
+    *
+    * @param str the name, where null or empty is treated as 'None'
+    * @param num the number
+    * @return the value
+    */
+   static NamePropertyValue of(String str, int num)
+   {
+      // Don't allow empty string for name values - use "None" instead
+      String name = str != null && !str.isEmpty() ? str : "None";
+      int hash = 31 * name.hashCode() + num;
+      int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+      NamePropertyValue cached = CACHE[index];
+      if (cached != null && cached.num == num && (cached.str == name || cached.str.equals(name)))
+      {
+         return cached;
+      }
+      // Shared values hold the canonical name, wherever the given name came from
+      NamePropertyValue value = new NamePropertyValue(SymbolTable.intern(name), num);
+      CACHE[index] = value;
+      return value;
+   }
+
    private final String str;
    private final int num;
+   // Computed on first use, since the string does not change
+   private int strLength = -1;
 
-   public NamePropertyValue(String str, int num)
+   private NamePropertyValue(String str, int num)
    {
-      // Don't allow empty string for name values - use "None" instead
-      this.str = str != null && !str.isEmpty() ? str : "None";
+      this.str = str;
       this.num = num;
    }
 
@@ -30,7 +64,7 @@ class NamePropertyValue implements PropertyValue
    public void write(PropertyWriter writer) throws IOException
    {
       // raw string length + '\0' + padding + num (int length) + num
-      int size = Property.computeStringNumBytes(str) + Integer.BYTES;
+      int size = strLength() + Integer.BYTES;
       writer.write(size);
       writer.writePadding();
       writer.write(str);
@@ -41,7 +75,18 @@ class NamePropertyValue implements PropertyValue
    public int length()
    {
       // 'size' + padding + str + num (integer length)
-      return Integer.BYTES + Integer.BYTES + Property.computeStringNumBytes(str) + Integer.BYTES;
+      return Integer.BYTES + Integer.BYTES + strLength() + Integer.BYTES;
+   }
+
+   private int strLength()
+   {
+      int len = strLength;
+      if (len < 0)
+      {
+         len = Property.computeStringNumBytes(str);
+         strLength = len;
+      }
+      return len;
    }
 
    @Override
@@ -0,0 +1,124 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Implementation of {@link CharacterPoolWriter} that encodes the character
+ * entries in parallel on the common fork/join pool. Since the size of every
+ * entry is known up front, each entry is encoded into its own slice of a
+ * single buffer that is reused between writes. The start of the pool, the
+ * entries and the end of the pool are then written to the file with one
+ * gathering write, without copying the encoded data.
+ *
+ * @author Zach Wassynger
+ */
+final class ParallelCharacterPoolWriter implements CharacterPoolWriter
+{
+   // Pools with fewer characters than this are not worth encoding in parallel
+   private static final int PARALLEL_THRESHOLD = 256;
+
+   private final FileChannel channel;
+   private ByteBuffer buffer;
+
+   ParallelCharacterPoolWriter(Path path) throws IOException
+   {
+      this.channel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+   }
+
+   /**
+    * Writes the given character pool to the file.
+    *
+    * @param pool the given pool, non-null
+    * @throws IOException              if some error occurred while writing to file
+    * @throws NullPointerException     if the pool is null
+    * @throws IllegalArgumentException if the pool is read-only
+    */
+   @Override
+   public void write(CharacterPool pool) throws IOException
+   {
+      if (pool.isReadOnly())
+      {
+         throw new IllegalArgumentException(String.format("cannot write read-only pool '%s'", pool.getName()));
+      }
+      List<Character> characters = pool.getCharacters();
+      boolean parallel = characters.size() >= PARALLEL_THRESHOLD;
+      List<ArrayPropertyValue.Entry> entries = (parallel ? characters.parallelStream() : characters.stream())
+            .map(Character::toEntry)
+            .collect(Collectors.toList());
+      // Lay out the entries one after another
+      int[] offsets = new int[entries.size() + 1];
+      for (int i = 0; i < entries.size(); i++)
+      {
+         long end = (long) offsets[i] + entries.get(i).computeLength();
+         if (end > Integer.MAX_VALUE)
+         {
+            throw new IOException(String.format("pool too large: over %d bytes", end));
+         }
+         offsets[i + 1] = (int) end;
+      }
+      int size = offsets[entries.size()];
+      if (buffer == null || buffer.capacity() < size)
+      {
+         buffer = ByteBuffer.allocate(size);
+      }
+      ByteBuffer body = buffer;
+      IntStream indices = IntStream.range(0, entries.size());
+      (parallel ? indices.parallel() : indices).forEach(i -> encode(entries.get(i), body, offsets[i], offsets[i + 1]));
+
+      List<Property> headers = pool.toHeaders();
+      ByteBuffer start = ByteBuffer.allocate(CharacterPool.computeStartLength(headers));
+      PropertyEncoder startEncoder = new PropertyEncoder(start);
+      CharacterPool.writeStart(startEncoder, headers, entries.size());
+      start.limit(startEncoder.position());
+      ByteBuffer end = ByteBuffer.allocate(Property.NONE_NUM_BYTES);
+      PropertyEncoder endEncoder = new PropertyEncoder(end);
+      ArrayPropertyValue.writeEnd(endEncoder, headers);
+      end.limit(endEncoder.position());
+
+      body.clear().limit(size);
+      ByteBuffer[] buffers = { start, body, end };
+      long remaining = (long) start.remaining() + body.remaining() + end.remaining();
+      while (remaining > 0)
+      {
+         remaining -= channel.write(buffers);
+      }
+   }
+
+   private static void encode(ArrayPropertyValue.Entry entry, ByteBuffer buffer, int start, int end)
+   {
+      // Each entry gets its own view, so encoders do not share any state
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(start);
+      PropertyEncoder encoder = new PropertyEncoder(slice);
+      try
+      {
+         entry.write(encoder);
+      }
+      catch (IOException e)
+      {
+         throw new UncheckedIOException(e);
+      }
+      if (encoder.position() != end)
+      {
+         throw new IllegalStateException(String.format("computed entry end %d but wrote to %d", end,
+               encoder.position()));
+      }
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      buffer = null;
+      channel.close();
+   }
+}
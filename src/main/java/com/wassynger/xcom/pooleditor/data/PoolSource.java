@@ -0,0 +1,111 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Identifies the state of a pool file at the time it was read, so the raw
+ * bytes of its characters can later be copied from the file as long as it has
+ * not changed since. The content is identified by a CRC-32 checksum of the
+ * data that was read. The size and last modified time are compared first, so
+ * most changes are detected without reading the file again.
+ *
+ * @author Zach Wassynger
+ */
+final class PoolSource
+{
+   // Size of the chunks a file is read in to compute its checksum
+   private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Captures the current state of the given file, along with the checksum of
+    * the given data that was read from it.
+    *
+    * @param path the given file, non-null
+    * @param data the entire contents that were read from the file, non-null
+    * @return the source
+    * @throws IOException if the attributes of the file could not be read
+    */
+   static PoolSource of(Path path, ByteBuffer data) throws IOException
+   {
+      CRC32 crc = new CRC32();
+      crc.update(data.duplicate());
+      return new PoolSource(path, Files.size(path), Files.getLastModifiedTime(path).toMillis(), crc.getValue());
+   }
+
+   private final Path path;
+   private final long size;
+   private final long lastModified;
+   private final long checksum;
+
+   PoolSource(Path path, long size, long lastModified, long checksum)
+   {
+      this.path = Objects.requireNonNull(path);
+      this.size = size;
+      this.lastModified = lastModified;
+      this.checksum = checksum;
+   }
+
+   Path getPath()
+   {
+      return path;
+   }
+
+   long getSize()
+   {
+      return size;
+   }
+
+   long getLastModified()
+   {
+      return lastModified;
+   }
+
+   long getChecksum()
+   {
+      return checksum;
+   }
+
+   /**
+    * Returns whether the file still has the same size, last modified time and
+    * content as when it was read. The content is only read if the size and
+    * last modified time match.
+    *
+    * @return true if the file is unchanged, false if it changed or could not
+    *       be checked
+    */
+   boolean isUnchanged()
+   {
+      try
+      {
+         return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == lastModified &&
+                computeChecksum(path) == checksum;
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+   }
+
+   private static long computeChecksum(Path path) throws IOException
+   {
+      CRC32 crc = new CRC32();
+      ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+      {
+         while (channel.read(buffer) != -1)
+         {
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+         }
+      }
+      return crc.getValue();
+   }
+}
@@ -47,11 +47,27 @@ public final class Property
          return Integer.BYTES;
       }
       // int (length of string) + string length + null terminator
-      return Integer.BYTES + str.getBytes(STRING_CHARSET).length + Byte.BYTES;
+      return Integer.BYTES + computeEncodedLength(str) + Byte.BYTES;
+   }
+
+   private static int computeEncodedLength(String str)
+   {
+      for (int i = 0; i < str.length(); i++)
+      {
+         if (str.charAt(i) > 0x7F)
+         {
+            // Let the charset handle replacement of non-ASCII characters
+            return str.getBytes(STRING_CHARSET).length;
+         }
+      }
+      // ASCII characters are always encoded as a single byte
+      return str.length();
    }
 
    private final PropertyField field;
    private final PropertyValue value;
+   // Computed on first use, since the field and value do not change
+   private int length = -1;
 
    /**
     * Creates a new property with the given arguments.
@@ -93,9 +109,15 @@ public final class Property
     */
    public int computeLength()
    {
-      // name length + name + padding + type name length + type name + padding + value
-      return computeStringNumBytes(field.getName()) + Integer.BYTES + computeStringNumBytes(field.getType().getName()) +
-             Integer.BYTES + value.length();
+      int len = length;
+      if (len < 0)
+      {
+         // name length + name + padding + type name length + type name + padding + value
+         len = computeStringNumBytes(field.getName()) + Integer.BYTES +
+               computeStringNumBytes(field.getType().getName()) + Integer.BYTES + value.length();
+         length = len;
+      }
+      return len;
    }
 
    @Override
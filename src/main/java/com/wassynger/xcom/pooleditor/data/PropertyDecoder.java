@@ -0,0 +1,590 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decodes {@linkplain Property properties} from a {@link ByteSource}, which is
+ * either a little endian byte buffer or a stream. Besides whole properties,
+ * the starts and ends of structs and arrays can be read on their own, which is
+ * how the {@link PropertyParser} reads a stream one event at a time.
+ *
+ * @author Zach Wassynger
+ */
+final class PropertyDecoder
+{
+   // Data of the encoded 'None' string
+   private static final byte[] NONE_DATA = { 5, 0, 0, 0, 'N', 'o', 'n', 'e', '\0' };
+
+   private final ByteSource in;
+   // Buffer the data is read from, or null if read from a stream
+   private final ByteBuffer buffer;
+   // File the buffer was loaded from, if the pool entries are indexed
+   private final PoolSource source;
+
+   // Fields to decode for the character pool entries, or null for all fields
+   private Set<? extends PropertyField> projection = null;
+   private boolean projectsAppearance = false;
+
+   // Contains the start positions and expected sizes of all tracked blobs
+   private int[] startPos;
+   private int[] blobSize;
+   private int depth = 0;
+
+   /**
+    * Creates a new decoder over the given buffer, starting at its current
+    * position and ending at its limit.
+    *
+    * @param buffer the given buffer, non-null
+    * @throws NullPointerException if buffer is null
+    */
+   PropertyDecoder(ByteBuffer buffer)
+   {
+      this(buffer, null);
+   }
+
+   /**
+    * Creates a new decoder over the given buffer, starting at its current
+    * position and ending at its limit. If a source is given, the entries of
+    * the character pool array are only scanned for their bounds, and are
+    * decoded on demand through an {@link EntryIndex}. The buffer must then
+    * hold the entire source file, so the bounds are also file offsets.
+    *
+    * @param buffer the given buffer, non-null
+    * @param source the file the buffer was loaded from, or null to decode all
+    *               entries up front
+    * @throws NullPointerException if buffer is null
+    */
+   PropertyDecoder(ByteBuffer buffer, PoolSource source)
+   {
+      this(new BufferByteSource(buffer), buffer, source);
+   }
+
+   /**
+    * Creates a new decoder over the given source. All entries are decoded up
+    * front.
+    *
+    * @param in the given source, non-null
+    * @throws NullPointerException if the source is null
+    */
+   PropertyDecoder(ByteSource in)
+   {
+      this(in, null, null);
+   }
+
+   private PropertyDecoder(ByteSource in, ByteBuffer buffer, PoolSource source)
+   {
+      this.in = Objects.requireNonNull(in);
+      this.buffer = buffer;
+      this.source = source;
+      this.startPos = new int[8];
+      this.blobSize = new int[8];
+   }
+
+   /**
+    * Restricts the decoded fields of the character pool entries to the given
+    * set. All other values are skipped without being decoded. Requested
+    * appearance fields are pulled out of the appearance struct, and are
+    * returned alongside the other fields of the entry.
+    *
+    * @param fields the fields to decode, non-null
+    */
+   void setProjection(Set<? extends PropertyField> fields)
+   {
+      this.projection = Objects.requireNonNull(fields);
+      this.projectsAppearance = fields.stream().anyMatch(AppearanceField.class::isInstance);
+   }
+
+   /**
+    * Returns the current position of the source.
+    *
+    * @return the position
+    */
+   int position()
+   {
+      return in.position();
+   }
+
+   /**
+    * Returns whether there is any data left to decode.
+    *
+    * @return true if there is remaining data
+    * @throws IOException if some error occurred while reading
+    */
+   boolean hasRemaining() throws IOException
+   {
+      return in.hasRemaining();
+   }
+
+   /**
+    * Reads the header at the start of a pool file.
+    *
+    * @throws IOException if the data is malformed
+    */
+   void readFileHeader() throws IOException
+   {
+      readAndCheckValue(0xFFFFFFFF);
+   }
+
+   /**
+    * Reads all properties until the end of the data. Any top level 'None'
+    * terminators are skipped.
+    *
+    * @return the top level properties
+    * @throws IOException if the data is malformed
+    */
+   List<Property> readAll() throws IOException
+   {
+      readFileHeader();
+      List<Property> properties = new ArrayList<>();
+      while (hasRemaining())
+      {
+         Property property = readProperty();
+         if (property != null)
+         {
+            properties.add(property);
+         }
+      }
+      assert depth == 0;
+      return properties;
+   }
+
+   /**
+    * Reads the next property. Returns null if 'None' is read.
+    *
+    * @return the property, or null if the end of the current section is hit
+    * @throws IOException if the data is malformed
+    */
+   Property readProperty() throws IOException
+   {
+      String name = readSymbol();
+      readPadding();
+      if ("None".equals(name))
+      {
+         return null;
+      }
+      PropertyType type = PropertyType.get(readSymbol());
+      readPadding();
+      PropertyValue value = readValue(name, type);
+      return new Property(PropertyField.get(name, type), value);
+   }
+
+   /**
+    * Reads properties until 'None' is hit.
+    *
+    * @return the properties
+    * @throws IOException if the data is malformed
+    */
+   List<Property> readProperties() throws IOException
+   {
+      List<Property> properties = new ArrayList<>();
+      Property property = readProperty();
+      while (property != null)
+      {
+         properties.add(property);
+         property = readProperty();
+      }
+      return properties;
+   }
+
+   private PropertyValue readValue(String name, PropertyType type) throws IOException
+   {
+      switch (type)
+      {
+      case BOOL:
+         return readBoolValue();
+      case INT:
+         return readIntValue();
+      case STRING:
+         return readStringValue();
+      case NAME:
+         return readNameValue();
+      case STRUCT:
+         return readStructValue();
+      case ARRAY:
+         // The character pool array also contains some information before the
+         // array of characters
+         return readArrayValue("CharacterPool".equals(name));
+      default:
+         throw new AssertionError(String.format("unhandled type for '%s': %s", name, type));
+      }
+   }
+
+   PropertyValue readBoolValue() throws IOException
+   {
+      readAndCheckValue(0);
+      readPadding();
+      return BoolPropertyValue.of(readBool());
+   }
+
+   PropertyValue readIntValue() throws IOException
+   {
+      readAndCheckValue(Integer.BYTES);
+      readPadding();
+      return IntPropertyValue.of(readInt());
+   }
+
+   PropertyValue readStringValue() throws IOException
+   {
+      // string length + 4 (padding)
+      int size = readInt();
+      readPadding();
+      markStartBlob(size);
+      String str = readString();
+      checkBlobSize();
+      return new StringPropertyValue(str);
+   }
+
+   PropertyValue readNameValue() throws IOException
+   {
+      // string length + 8 (padding and unknown int value)
+      int size = readInt();
+      readPadding();
+      markStartBlob(size);
+      String str = readSymbol();
+      int num = readInt();
+      checkBlobSize();
+      return NamePropertyValue.of(str, num);
+   }
+
+   private PropertyValue readStructValue() throws IOException
+   {
+      String structType = readStructStart();
+      List<Property> entries = readProperties();
+      readStructEnd();
+      return new StructPropertyValue(structType, entries);
+   }
+
+   /**
+    * Reads the start of a struct value, up to its first property. The size of
+    * the struct is checked once {@link #readStructEnd()} is called after its
+    * terminating 'None'.
+    *
+    * @return the struct type
+    * @throws IOException if the data is malformed
+    */
+   String readStructStart() throws IOException
+   {
+      // length of entries
+      int size = readInt();
+      readPadding();
+      String structType = readSymbol();
+      readPadding();
+      // Size of struct starts after the class name and padding
+      markStartBlob(size);
+      return structType;
+   }
+
+   /**
+    * Checks the size of the struct that was last started, once its
+    * terminating 'None' is read.
+    *
+    * @throws IllegalArgumentException if the size does not match
+    * @see #readStructStart()
+    */
+   void readStructEnd()
+   {
+      checkBlobSize();
+   }
+
+   /**
+    * Reads the start of an array value, up to its first entry, or up to its
+    * headers for the character pool array.
+    *
+    * @return the number of entries
+    * @throws IOException if the data is malformed
+    */
+   int readArrayStart() throws IOException
+   {
+      // size is 4 for character pool, but otherwise is the actual data len?
+      readInt();
+      readPadding();
+      return readElementCount();
+   }
+
+   private PropertyValue readArrayValue(boolean parseHeaders) throws IOException
+   {
+      int numElements = readArrayStart();
+      List<Property> headers = parseHeaders ? readArrayHeaders(numElements) : new ArrayList<>();
+      if (parseHeaders && source != null)
+      {
+         return new ArrayPropertyValue(headers, EntryIndex.scan(this, buffer, source, numElements));
+      }
+      List<ArrayPropertyValue.Entry> entries = new ArrayList<>(numElements);
+      for (int i = 0; i < numElements; i++)
+      {
+         entries.add(new ArrayPropertyValue.Entry(
+               parseHeaders && projection != null ? readProjectedProperties(new ArrayList<>()) : readProperties()));
+      }
+      return new ArrayPropertyValue(headers, entries);
+   }
+
+   /**
+    * Reads the header properties that precede the entries of the character
+    * pool array, including the repeated element count.
+    *
+    * @param numElements the element count read before the headers
+    * @return the header properties
+    * @throws IOException if the data is malformed
+    */
+   List<Property> readArrayHeaders(int numElements) throws IOException
+   {
+      List<Property> headers = readProperties();
+      readArrayHeadersEnd(numElements);
+      return headers;
+   }
+
+   /**
+    * Reads the element count that is repeated after the terminating 'None' of
+    * the character pool array headers.
+    *
+    * @param numElements the element count read before the headers
+    * @throws IOException if the data is malformed or the counts differ
+    */
+   void readArrayHeadersEnd(int numElements) throws IOException
+   {
+      // number of elements is repeated after the initial section
+      int numElements2 = readInt();
+      if (numElements != numElements2)
+      {
+         throw new IOException(
+               String.format("pos %d: expected num elements to be equal: %d != %d", position() - Integer.BYTES,
+                     numElements, numElements2));
+      }
+   }
+
+   // Reads an element count, which must fit the remaining data as every
+   // element ends with at least a 'None' terminator
+   private int readElementCount() throws IOException
+   {
+      int count = readInt();
+      int remaining = in.remaining();
+      if (count < 0 || count > remaining / Property.NONE_NUM_BYTES)
+      {
+         throw new IOException(String.format("pos %d: invalid num elements %d for %d remaining bytes",
+               position() - Integer.BYTES, count, remaining));
+      }
+      return count;
+   }
+
+   /**
+    * Skips over the next property without decoding its value, using the size
+    * information stored before each value. Returns false if 'None' is read.
+    *
+    * @return false if the end of the current section is hit, true otherwise
+    * @throws IOException if the data is malformed
+    */
+   boolean skipProperty() throws IOException
+   {
+      boolean none = in.startsWith(NONE_DATA);
+      skipString();
+      readPadding();
+      if (none)
+      {
+         return false;
+      }
+      PropertyType type = PropertyType.get(readSymbol());
+      readPadding();
+      skipValue(type);
+      return true;
+   }
+
+   /**
+    * Skips properties until 'None' is hit.
+    *
+    * @throws IOException if the data is malformed
+    */
+   void skipProperties() throws IOException
+   {
+      while (skipProperty())
+      {
+         // Keep skipping
+      }
+   }
+
+   // Reads the projected properties until 'None' is hit, adding them to the
+   // given list
+   private List<Property> readProjectedProperties(List<Property> properties) throws IOException
+   {
+      String name = readSymbol();
+      readPadding();
+      while (!"None".equals(name))
+      {
+         PropertyType type = PropertyType.get(readSymbol());
+         readPadding();
+         PropertyField field = PropertyField.get(name, type);
+         if (projection.contains(field))
+         {
+            properties.add(new Property(field, readValue(name, type)));
+         }
+         else if (field == CharacterField.APPEARANCE && projectsAppearance && type == PropertyType.STRUCT)
+         {
+            // Pull the requested fields out of the struct
+            int size = readInt();
+            readPadding();
+            readSymbol();
+            readPadding();
+            markStartBlob(size);
+            readProjectedProperties(properties);
+            checkBlobSize();
+         }
+         else
+         {
+            skipValue(type);
+         }
+         name = readSymbol();
+         readPadding();
+      }
+      return properties;
+   }
+
+   /**
+    * Skips the value of the given type without decoding it, using the size
+    * information stored before the value. Arrays are decoded instead, as
+    * their sizes are not reliable.
+    *
+    * @param type the type of the value, non-null
+    * @throws IOException if the data is malformed
+    */
+   void skipValue(PropertyType type) throws IOException
+   {
+      switch (type)
+      {
+      case BOOL:
+         readAndCheckValue(0);
+         readPadding();
+         skip(Byte.BYTES);
+         break;
+      case STRUCT:
+         int size = readInt();
+         readPadding();
+         skipString();
+         readPadding();
+         skip(size);
+         break;
+      case ARRAY:
+         // Array sizes are not reliable, so decode it instead
+         readArrayValue(false);
+         break;
+      default:
+         // Everything else has the exact size of the value data
+         size = readInt();
+         readPadding();
+         skip(size);
+      }
+   }
+
+   private void skipString() throws IOException
+   {
+      skip(readStringLength());
+   }
+
+   private void skip(int len) throws IOException
+   {
+      if (len < 0)
+      {
+         throw new IOException(String.format("pos %d: invalid size %d", position(), len));
+      }
+      in.skip(len);
+   }
+
+   boolean readBool() throws IOException
+   {
+      return in.readBool();
+   }
+
+   int readInt() throws IOException
+   {
+      return in.readInt();
+   }
+
+   String readString() throws IOException
+   {
+      int len = readStringLength();
+      return len == 0 ? "" : in.readString(len);
+   }
+
+   /**
+    * Reads a string, returning the canonical instance from the
+    * {@link SymbolTable}. Used for names that repeat throughout the data.
+    *
+    * @return the canonical string
+    * @throws IOException if the data is malformed
+    */
+   String readSymbol() throws IOException
+   {
+      int len = readStringLength();
+      return len == 0 ? "" : in.readSymbol(len);
+   }
+
+   // Reads and validates the length of the string at the current position
+   private int readStringLength() throws IOException
+   {
+      int len = readInt();
+      if (len < 0)
+      {
+         throw new IOException(String.format("pos %d: invalid string length %d", position() - Integer.BYTES, len));
+      }
+      return len;
+   }
+
+   void readPadding() throws IOException
+   {
+      int value = readInt();
+      if (value != 0)
+      {
+         throw new IOException(
+               String.format("pos %d: expected padding, got 0x%08X", position() - Integer.BYTES, value));
+      }
+   }
+
+   private void readAndCheckValue(int expected) throws IOException
+   {
+      int actual = readInt();
+      if (actual != expected)
+      {
+         throw new IOException(
+               String.format("pos %d: unexpected int value 0x%08X, expected 0x%08X", position() - Integer.BYTES,
+                     actual, expected));
+      }
+   }
+
+   /**
+    * Marks the start of a blob of the given size.
+    *
+    * @param expected the expected size
+    * @see #checkBlobSize()
+    */
+   private void markStartBlob(int expected)
+   {
+      if (depth == startPos.length)
+      {
+         startPos = Arrays.copyOf(startPos, depth * 2);
+         blobSize = Arrays.copyOf(blobSize, depth * 2);
+      }
+      startPos[depth] = position();
+      blobSize[depth++] = expected;
+   }
+
+   /**
+    * Marks the end of a blob and asserts that the size of the blob matches what
+    * is expected. Throws an exception if it does not match.
+    *
+    * @see #markStartBlob(int)
+    */
+   private void checkBlobSize()
+   {
+      int pos = position();
+      int actual = pos - startPos[--depth];
+      if (actual != blobSize[depth])
+      {
+         throw new IllegalArgumentException(
+               String.format("pos %d: unexpected size '%d', expected '%d'", pos, actual, blobSize[depth]));
+      }
+   }
+}
@@ -0,0 +1,175 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * Encodes properties into a little endian buffer via absolute puts. The
+ * position of the buffer itself is never modified; the encoder tracks its own
+ * position, starting at the position of the buffer. The buffer must be large
+ * enough to hold everything that is written, which can be computed up front
+ * via {@link Property#computeLength()}.
+ *
+ * @author Zach Wassynger
+ */
+final class PropertyEncoder implements PropertyWriter
+{
+   private final ByteBuffer buffer;
+   private int pos;
+
+   /**
+    * Creates a new encoder into the given buffer, starting at its current
+    * position.
+    *
+    * @param buffer the given buffer, non-null
+    * @throws NullPointerException if buffer is null
+    */
+   PropertyEncoder(ByteBuffer buffer)
+   {
+      this.buffer = Objects.requireNonNull(buffer).order(ByteOrder.LITTLE_ENDIAN);
+      this.pos = buffer.position();
+   }
+
+   /**
+    * Returns the absolute position that the next value is written at.
+    *
+    * @return the position
+    */
+   int position()
+   {
+      return pos;
+   }
+
+   @Override
+   public void write(Property property) throws IOException
+   {
+      if (property == null)
+      {
+         writeNone();
+         return;
+      }
+      write(property.getField().getName());
+      writePadding();
+      write(property.getField().getType().getName());
+      writePadding();
+      property.getValue().write(this);
+   }
+
+   @Override
+   public void write(String str)
+   {
+      if (str == null || str.isEmpty())
+      {
+         write(0);
+         return;
+      }
+      if (!isAscii(str))
+      {
+         // Let the charset handle replacement of non-ASCII characters
+         byte[] data = str.getBytes(Property.STRING_CHARSET);
+         write(data.length + 1);
+         for (byte b : data)
+         {
+            buffer.put(pos++, b);
+         }
+         buffer.put(pos++, (byte) 0);
+         return;
+      }
+      // size + 1 (for null terminator)
+      write(str.length() + 1);
+      for (int i = 0; i < str.length(); i++)
+      {
+         buffer.put(pos++, (byte) str.charAt(i));
+      }
+      buffer.put(pos++, (byte) 0);
+   }
+
+   private static boolean isAscii(String str)
+   {
+      for (int i = 0; i < str.length(); i++)
+      {
+         if (str.charAt(i) > 0x7F)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public void write(byte value)
+   {
+      buffer.put(pos++, value);
+   }
+
+   @Override
+   public void write(int value)
+   {
+      buffer.putInt(pos, value);
+      pos += Integer.BYTES;
+   }
+
+   /**
+    * Writes the given range of raw bytes.
+    *
+    * @param data   the bytes, non-null
+    * @param offset the offset of the range within the bytes
+    * @param length the length of the range
+    */
+   void write(byte[] data, int offset, int length)
+   {
+      if (length > buffer.limit() - pos)
+      {
+         throw new IndexOutOfBoundsException(String.format("%d bytes do not fit at %d", length, pos));
+      }
+      if (buffer.hasArray())
+      {
+         System.arraycopy(data, offset, buffer.array(), buffer.arrayOffset() + pos, length);
+      }
+      else
+      {
+         for (int i = 0; i < length; i++)
+         {
+            buffer.put(pos + i, data[offset + i]);
+         }
+      }
+      pos += length;
+   }
+
+   /**
+    * Overwrites the integer at the given absolute position, which must have
+    * already been written. The position of the encoder is not changed.
+    *
+    * @param position the absolute position
+    * @param value    the new value
+    */
+   void writeAt(int position, int value)
+   {
+      if (position < 0 || position + Integer.BYTES > pos)
+      {
+         throw new IllegalArgumentException(String.format("position %d not yet written", position));
+      }
+      buffer.putInt(position, value);
+   }
+
+   @Override
+   public void writePadding()
+   {
+      write(0x00000000);
+   }
+
+   @Override
+   public void writeNone()
+   {
+      write("None");
+      writePadding();
+   }
+
+   @Override
+   public void close()
+   {
+      // Nothing to release, the buffer is owned by the caller
+   }
+}
@@ -1,5 +1,7 @@
 package com.wassynger.xcom.pooleditor.data;
 
+import java.util.Objects;
+
 /**
  * Describes a {@link Property} with a name and {@link PropertyType}.
  *
@@ -8,8 +10,10 @@ package com.wassynger.xcom.pooleditor.data;
 public interface PropertyField
 {
    /**
-    * Looks up and returns a known field, if it exists. Otherwise, creates a
-    * custom field for the given parameters.
+    * Looks up and returns a known field, if it exists. Otherwise, returns a
+    * custom field for the given parameters. Only one custom field is created
+    * for each distinct name and type. Does not allocate once a field has
+    * been resolved.
     *
     * @param name the given name, non-null
     * @param type the given type, non-null
@@ -18,11 +22,7 @@ public interface PropertyField
     */
    static PropertyField get(String name, PropertyType type)
    {
-      return CharacterField.get(name)
-            .map(PropertyField.class::cast)
-            .orElse(AppearanceField.get(name)
-                  .map(PropertyField.class::cast)
-                  .orElse(new UnknownPropertyField(name, type)));
+      return SymbolTable.field(Objects.requireNonNull(name), Objects.requireNonNull(type));
    }
 
    /**
@@ -0,0 +1,432 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Pull parser over a serialized stream of {@linkplain Property properties}.
+ * Each call to {@link #next()} reads just enough of the stream to produce the
+ * next {@link Event}, so memory usage does not depend on the size of the
+ * stream. The data associated with the current event is available through the
+ * getters until the next call to {@link #next()}.
+ * <p>
+ * A property starts with {@link Event#START_PROPERTY}, followed by either a
+ * {@link Event#VALUE} for simple types, a {@link Event#START_STRUCT} for
+ * structs or a {@link Event#START_ARRAY} for arrays. Structs contain nested
+ * properties and end with {@link Event#END}. Arrays contain any number of
+ * entries, each started by {@link Event#START_ARRAY_ENTRY} and ended by
+ * {@link Event#END}, and finish with {@link Event#END_ARRAY}. The character
+ * pool array also has header properties (ended by {@link Event#END}) before
+ * the first entry.
+ * <p>
+ * The values themselves are decoded and checked by a {@link PropertyDecoder}
+ * over the stream, so the parser only tracks the nesting of the events.
+ *
+ * @author Zach Wassynger
+ */
+public final class PropertyParser implements AutoCloseable
+{
+   private static final int CTX_STRUCT = 0;
+   private static final int CTX_HEADERS = 1;
+   private static final int CTX_ARRAY = 2;
+   private static final int CTX_ENTRY = 3;
+
+   /**
+    * Opens a parser for the given pool file. The file header is read
+    * immediately.
+    *
+    * @param path the given file, non-null
+    * @return the parser
+    * @throws IOException if some error occurred while opening the file
+    */
+   public static PropertyParser open(Path path) throws IOException
+   {
+      long size = Files.size(Objects.requireNonNull(path));
+      PropertyParser parser = new PropertyParser(Files.newInputStream(path), size);
+      try
+      {
+         parser.readHeader();
+      }
+      catch (IOException e)
+      {
+         parser.close();
+         throw e;
+      }
+      return parser;
+   }
+
+   private final StreamByteSource in;
+   private final PropertyDecoder decoder;
+
+   // Stack of nested contexts, along with the info tracked for each
+   private int[] contexts;
+   // remaining entries of arrays
+   private int[] contextData;
+   // element count of arrays
+   private int[] contextSize;
+   private int depth = 0;
+
+   private boolean done = false;
+
+   // State of the current event
+   private Event event;
+   private String name;
+   private PropertyType type;
+   private PropertyField field;
+   private PropertyValue value;
+   private String structType;
+   private int numElements;
+   private boolean valuePending = false;
+
+   /**
+    * Creates a new parser over the given stream. The stream must be
+    * positioned after the file header.
+    *
+    * @param is the given stream, non-null
+    * @throws NullPointerException if the stream is null
+    */
+   public PropertyParser(InputStream is)
+   {
+      this(is, -1);
+   }
+
+   private PropertyParser(InputStream is, long size)
+   {
+      this.in = new StreamByteSource(is, size);
+      this.decoder = new PropertyDecoder(in);
+      this.contexts = new int[8];
+      this.contextData = new int[8];
+      this.contextSize = new int[8];
+   }
+
+   /**
+    * Reads the next event from the stream.
+    *
+    * @return the next event
+    * @throws IOException if some error occurred while reading, or the data is
+    *                     malformed
+    */
+   public Event next() throws IOException
+   {
+      clearEvent();
+      if (valuePending)
+      {
+         valuePending = false;
+         return event = readValue();
+      }
+      if (depth == 0)
+      {
+         if (done || !decoder.hasRemaining())
+         {
+            done = true;
+            return event = Event.END_DOCUMENT;
+         }
+         return event = readPropertyStart();
+      }
+      switch (contexts[depth - 1])
+      {
+      case CTX_ARRAY:
+         if (contextData[depth - 1] == 0)
+         {
+            depth--;
+            return event = Event.END_ARRAY;
+         }
+         contextData[depth - 1]--;
+         push(CTX_ENTRY, 0, 0);
+         return event = Event.START_ARRAY_ENTRY;
+      case CTX_STRUCT:
+      case CTX_HEADERS:
+      case CTX_ENTRY:
+         return event = readPropertyStart();
+      default:
+         throw new AssertionError(String.format("unhandled context: %d", contexts[depth - 1]));
+      }
+   }
+
+   /**
+    * Skips the value of the current property without decoding it, using the
+    * size information stored before the value. May only be called directly
+    * after {@link Event#START_PROPERTY}.
+    *
+    * @throws IOException           if some error occurred while reading
+    * @throws IllegalStateException if not at the start of a property
+    */
+   public void skipValue() throws IOException
+   {
+      if (event != Event.START_PROPERTY || !valuePending)
+      {
+         throw new IllegalStateException(String.format("cannot skip value at %s", event));
+      }
+      valuePending = false;
+      if (type == PropertyType.ARRAY)
+      {
+         // Array sizes are not reliable, so walk through its events instead
+         int arrayDepth = depth;
+         readValue();
+         while (depth > arrayDepth)
+         {
+            next();
+         }
+      }
+      else
+      {
+         decoder.skipValue(type);
+      }
+      clearEvent();
+   }
+
+   /**
+    * Returns the current event.
+    *
+    * @return the current event, or null if nothing has been read yet
+    */
+   public Event getEvent()
+   {
+      return event;
+   }
+
+   /**
+    * Returns the name of the current property. Available from
+    * {@link Event#START_PROPERTY} until its value is read.
+    *
+    * @return the name, or null if not at a property
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * Returns the type of the current property. Available from
+    * {@link Event#START_PROPERTY} until its value is read.
+    *
+    * @return the type, or null if not at a property
+    */
+   public PropertyType getType()
+   {
+      return type;
+   }
+
+   /**
+    * Returns the field of the current property. Available from
+    * {@link Event#START_PROPERTY} until its value is read.
+    *
+    * @return the field, or null if not at a property
+    */
+   public PropertyField getField()
+   {
+      return field;
+   }
+
+   /**
+    * Returns the value that was just read.
+    *
+    * @return the value, or null if not at {@link Event#VALUE}
+    */
+   public PropertyValue getValue()
+   {
+      return value;
+   }
+
+   /**
+    * Returns the struct type of the struct that was just started.
+    *
+    * @return the struct type, or null if not at {@link Event#START_STRUCT}
+    */
+   public String getStructType()
+   {
+      return structType;
+   }
+
+   /**
+    * Returns the number of entries of the array that was just started.
+    *
+    * @return the number of entries, or 0 if not at {@link Event#START_ARRAY}
+    */
+   public int getElementCount()
+   {
+      return numElements;
+   }
+
+   /**
+    * Returns the number of structs, arrays and entries that currently
+    * enclose the parser.
+    *
+    * @return the nesting depth
+    */
+   public int getDepth()
+   {
+      return depth;
+   }
+
+   /**
+    * Returns the number of bytes read from the stream so far.
+    *
+    * @return the position
+    */
+   public int getPosition()
+   {
+      return in.position();
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      in.close();
+   }
+
+   private void clearEvent()
+   {
+      event = null;
+      if (!valuePending)
+      {
+         name = null;
+         type = null;
+         field = null;
+      }
+      value = null;
+      structType = null;
+      numElements = 0;
+   }
+
+   private void readHeader() throws IOException
+   {
+      decoder.readFileHeader();
+   }
+
+   private Event readPropertyStart() throws IOException
+   {
+      String str = decoder.readSymbol();
+      decoder.readPadding();
+      if ("None".equals(str))
+      {
+         return readEnd();
+      }
+      name = str;
+      type = PropertyType.get(decoder.readSymbol());
+      decoder.readPadding();
+      field = PropertyField.get(name, type);
+      valuePending = true;
+      return Event.START_PROPERTY;
+   }
+
+   private Event readEnd() throws IOException
+   {
+      if (depth == 0)
+      {
+         // Stray 'None' at the top level
+         return Event.END;
+      }
+      depth--;
+      switch (contexts[depth])
+      {
+      case CTX_STRUCT:
+         decoder.readStructEnd();
+         break;
+      case CTX_HEADERS:
+         decoder.readArrayHeadersEnd(contextSize[depth]);
+         break;
+      default:
+         // Nothing to check
+      }
+      return Event.END;
+   }
+
+   private Event readValue() throws IOException
+   {
+      switch (type)
+      {
+      case BOOL:
+         value = decoder.readBoolValue();
+         return Event.VALUE;
+      case INT:
+         value = decoder.readIntValue();
+         return Event.VALUE;
+      case STRING:
+         value = decoder.readStringValue();
+         return Event.VALUE;
+      case NAME:
+         value = decoder.readNameValue();
+         return Event.VALUE;
+      case STRUCT:
+         structType = decoder.readStructStart();
+         push(CTX_STRUCT, 0, 0);
+         return Event.START_STRUCT;
+      case ARRAY:
+         // The character pool array also contains some information before the
+         // array of characters
+         readArrayStart("CharacterPool".equals(name));
+         return Event.START_ARRAY;
+      default:
+         throw new AssertionError(String.format("unhandled type for '%s': %s", name, type));
+      }
+   }
+
+   private void readArrayStart(boolean parseHeaders) throws IOException
+   {
+      numElements = decoder.readArrayStart();
+      push(CTX_ARRAY, numElements, numElements);
+      if (parseHeaders)
+      {
+         push(CTX_HEADERS, 0, numElements);
+      }
+   }
+
+   private void push(int context, int data, int size)
+   {
+      if (depth == contexts.length)
+      {
+         contexts = Arrays.copyOf(contexts, depth * 2);
+         contextData = Arrays.copyOf(contextData, depth * 2);
+         contextSize = Arrays.copyOf(contextSize, depth * 2);
+      }
+      contexts[depth] = context;
+      contextData[depth] = data;
+      contextSize[depth] = size;
+      depth++;
+   }
+
+   /**
+    * The types of data that can be read from the stream.
+    */
+   public enum Event
+   {
+      /**
+       * The start of a property, with its name and type.
+       */
+      START_PROPERTY,
+      /**
+       * The value of a simple (non-struct and non-array) property.
+       */
+      VALUE,
+      /**
+       * The start of a struct value, with its struct type.
+       */
+      START_STRUCT,
+      /**
+       * The start of an array value, with its element count.
+       */
+      START_ARRAY,
+      /**
+       * The start of an entry within an array.
+       */
+      START_ARRAY_ENTRY,
+      /**
+       * A 'None' terminator, ending a struct, an array entry or the array
+       * headers.
+       */
+      END,
+      /**
+       * The end of an array, after its last entry.
+       */
+      END_ARRAY,
+      /**
+       * The end of the stream.
+       */
+      END_DOCUMENT
+   }
+}
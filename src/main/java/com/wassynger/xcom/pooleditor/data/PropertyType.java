@@ -17,6 +17,7 @@ public enum PropertyType
    STRUCT("StructProperty"),
    ARRAY("ArrayProperty");
 
+   private static final PropertyType[] VALUES = values();
    private static final Map<String, PropertyType> NAME_MAP;
 
    static
@@ -30,7 +31,8 @@ public enum PropertyType
 
    /**
     * Finds and returns the property type that is represented by the given
-    * string.
+    * string. Canonical strings from the {@link SymbolTable} are matched by
+    * identity, without a hash lookup.
     *
     * @param str the given string
     * @return the property type
@@ -38,6 +40,13 @@ public enum PropertyType
     */
    public static PropertyType get(String str)
    {
+      for (PropertyType type : VALUES)
+      {
+         if (type.name == str)
+         {
+            return type;
+         }
+      }
       if (!NAME_MAP.containsKey(str))
       {
          throw new IllegalArgumentException(String.format("no type exists for %s", str));
@@ -0,0 +1,179 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Reads from an input stream, through a buffer of its own. Only the bytes
+ * that are asked for are read, so memory usage does not depend on the size of
+ * the stream.
+ *
+ * @author Zach Wassynger
+ */
+final class StreamByteSource implements ByteSource
+{
+   private final InputStream is;
+   private final long size;
+   private final byte[] intData;
+   private byte[] strData;
+   private int pos = 0;
+
+   /**
+    * Creates a new source over the given stream.
+    *
+    * @param is   the given stream, non-null
+    * @param size the number of bytes in the stream, or -1 if not known
+    * @throws NullPointerException if the stream is null
+    */
+   StreamByteSource(InputStream is, long size)
+   {
+      this.is = new BufferedInputStream(Objects.requireNonNull(is));
+      this.size = size;
+      this.intData = new byte[Integer.BYTES];
+      this.strData = new byte[64];
+   }
+
+   @Override
+   public int position()
+   {
+      return pos;
+   }
+
+   @Override
+   public int remaining()
+   {
+      return size < 0 ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, Math.max(0, size - pos));
+   }
+
+   @Override
+   public boolean hasRemaining() throws IOException
+   {
+      is.mark(1);
+      int next = is.read();
+      is.reset();
+      return next != -1;
+   }
+
+   @Override
+   public boolean startsWith(byte[] data) throws IOException
+   {
+      is.mark(data.length);
+      try
+      {
+         for (byte expected : data)
+         {
+            if (is.read() != (expected & 0xFF))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+      finally
+      {
+         is.reset();
+      }
+   }
+
+   @Override
+   public boolean readBool() throws IOException
+   {
+      int actual = is.read();
+      if (actual == -1)
+      {
+         throw new IOException(String.format("pos %d: missing data for bool", pos));
+      }
+      pos++;
+      return actual != 0;
+   }
+
+   @Override
+   public int readInt() throws IOException
+   {
+      readFully(intData, Integer.BYTES, "int");
+      return (intData[0] & 0xFF) | (intData[1] & 0xFF) << 8 | (intData[2] & 0xFF) << 16 | (intData[3] & 0xFF) << 24;
+   }
+
+   @Override
+   public String readString(int len) throws IOException
+   {
+      readStringData(len);
+      return new String(strData, 0, len - 1, Property.STRING_CHARSET);
+   }
+
+   @Override
+   public String readSymbol(int len) throws IOException
+   {
+      readStringData(len);
+      return SymbolTable.intern(strData, 0, len - 1);
+   }
+
+   @Override
+   public void skip(int len) throws IOException
+   {
+      int total = 0;
+      while (total < len)
+      {
+         long actual = is.skip(len - total);
+         if (actual <= 0)
+         {
+            // skip may not detect the end of the stream, so check with a read
+            if (is.read() == -1)
+            {
+               throw new IOException(String.format("pos %d: missing data to skip %d bytes", pos + total, len));
+            }
+            actual = 1;
+         }
+         total += (int) actual;
+      }
+      pos += len;
+   }
+
+   /**
+    * Closes the underlying stream.
+    *
+    * @throws IOException if some error occurred while closing
+    */
+   void close() throws IOException
+   {
+      is.close();
+   }
+
+   // Reads the data of a string into the string buffer
+   private void readStringData(int len) throws IOException
+   {
+      if (len > remaining())
+      {
+         throw new IOException(String.format("pos %d: missing data for string; expected %d bytes, got %d", pos, len,
+               remaining()));
+      }
+      if (strData.length < len)
+      {
+         strData = new byte[Math.max(len, strData.length * 2)];
+      }
+      readFully(strData, len, "string");
+      if (strData[len - 1] != '\0')
+      {
+         throw new IOException(
+               String.format("pos %d: expected '\\0' to end string, got %c", pos - Byte.BYTES, strData[len - 1]));
+      }
+   }
+
+   private void readFully(byte[] data, int len, String what) throws IOException
+   {
+      int total = 0;
+      while (total < len)
+      {
+         int actual = is.read(data, total, len - total);
+         if (actual == -1)
+         {
+            throw new IOException(
+                  String.format("pos %d: missing data for %s; expected %d bytes, got %d", pos, what, len, total));
+         }
+         total += actual;
+      }
+      pos += len;
+   }
+}
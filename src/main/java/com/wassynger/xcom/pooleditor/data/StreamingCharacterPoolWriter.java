@@ -0,0 +1,142 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Implementation of {@link CharacterPoolStreamWriter} that encodes each
+ * character into a reusable buffer, which is written to the file whenever it
+ * fills up. The start of the pool is written with a count of zero, and the
+ * counts are overwritten with positioned writes once the writer is closed.
+ *
+ * @author Zach Wassynger
+ */
+final class StreamingCharacterPoolWriter implements CharacterPoolStreamWriter
+{
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final FileChannel channel;
+   private final List<Property> headers;
+   // Positions of the counts within the file
+   private final long countPos;
+   private final long headerCountPos;
+   private final CharacterEncoder charEncoder;
+   private ByteBuffer buffer;
+   private int count;
+   private boolean closed;
+
+   StreamingCharacterPoolWriter(Path path, String poolFileName) throws IOException
+   {
+      this.channel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      this.headers = CharacterPool.toHeaders(poolFileName);
+      this.charEncoder = new CharacterEncoder();
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      this.count = 0;
+      this.closed = false;
+      int startLength = CharacterPool.computeStartLength(headers);
+      try
+      {
+         PropertyEncoder encoder = prepareEncoder(startLength);
+         CharacterPool.writeStart(encoder, headers, 0);
+         buffer.position(encoder.position());
+      }
+      catch (IOException | RuntimeException e)
+      {
+         channel.close();
+         throw e;
+      }
+      // The count is the last value written, and is preceded by the headers if
+      // there are any
+      this.headerCountPos = startLength - Integer.BYTES;
+      this.countPos = headers.isEmpty() ?
+            headerCountPos :
+            headerCountPos - Property.NONE_NUM_BYTES - headers.stream().mapToInt(Property::computeLength).sum() -
+            Integer.BYTES;
+   }
+
+   @Override
+   public void append(Character character) throws IOException
+   {
+      if (closed)
+      {
+         throw new IllegalStateException("writer is closed");
+      }
+      PropertyEncoder encoder = prepareEncoder(charEncoder.prepare(character));
+      charEncoder.encode(encoder);
+      buffer.position(encoder.position());
+      count++;
+   }
+
+   @Override
+   public int getCount()
+   {
+      return count;
+   }
+
+   // Returns an encoder into the buffer that has room for the given size
+   private PropertyEncoder prepareEncoder(int size) throws IOException
+   {
+      if (buffer.remaining() < size)
+      {
+         flushBuffer();
+         if (buffer.capacity() < size)
+         {
+            buffer = ByteBuffer.allocate(size);
+         }
+      }
+      return new PropertyEncoder(buffer);
+   }
+
+   private void flushBuffer() throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      if (closed)
+      {
+         return;
+      }
+      closed = true;
+      try
+      {
+         PropertyEncoder encoder = prepareEncoder(Property.NONE_NUM_BYTES);
+         ArrayPropertyValue.writeEnd(encoder, headers);
+         buffer.position(encoder.position());
+         flushBuffer();
+         writeCount(countPos);
+         if (!headers.isEmpty())
+         {
+            writeCount(headerCountPos);
+         }
+      }
+      finally
+      {
+         buffer = null;
+         channel.close();
+      }
+   }
+
+   private void writeCount(long position) throws IOException
+   {
+      ByteBuffer value = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, count);
+      while (value.hasRemaining())
+      {
+         position += channel.write(value, position);
+      }
+   }
+}
@@ -6,6 +6,8 @@ import java.util.Objects;
 class StringPropertyValue implements PropertyValue
 {
    private final String str;
+   // Computed on first use, since the string does not change
+   private int strLength = -1;
 
    public StringPropertyValue(String str)
    {
@@ -20,10 +22,26 @@ class StringPropertyValue implements PropertyValue
 
    @Override
    public void write(PropertyWriter writer) throws IOException
+   {
+      write(writer, str, strLength());
+   }
+
+   /**
+    * Writes a string value without creating it first.
+    *
+    * @param writer the writer, non-null
+    * @param str    the string, or null
+    * @throws IOException if some error occurred while writing
+    */
+   static void write(PropertyWriter writer, String str) throws IOException
+   {
+      write(writer, str, Property.computeStringNumBytes(str));
+   }
+
+   private static void write(PropertyWriter writer, String str, int strLength) throws IOException
    {
       // raw string length + '\0' (if not empty) + padding
-      int size = Property.computeStringNumBytes(str);
-      writer.write(size);
+      writer.write(strLength);
       writer.writePadding();
       writer.write(str);
    }
@@ -32,7 +50,18 @@ class StringPropertyValue implements PropertyValue
    public int length()
    {
       // 'size' + padding + str
-      return Integer.BYTES + Integer.BYTES + Property.computeStringNumBytes(str);
+      return Integer.BYTES + Integer.BYTES + strLength();
+   }
+
+   private int strLength()
+   {
+      int len = strLength;
+      if (len < 0)
+      {
+         len = Property.computeStringNumBytes(str);
+         strLength = len;
+      }
+      return len;
    }
 
    @Override
@@ -35,7 +35,9 @@ public enum StringTemplate
 
    public StringEntry getOrAdd(String str)
    {
-      return map.computeIfAbsent(str, s -> add(s, s));
+      // Not computeIfAbsent, since add modifies the map itself
+      StringEntry entry = map.get(str);
+      return entry != null ? entry : add(str, str);
    }
 
    public boolean tryAdd(INIConfiguration config, String section)
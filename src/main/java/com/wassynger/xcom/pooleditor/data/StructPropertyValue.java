@@ -8,6 +8,8 @@ class StructPropertyValue implements PropertyValue
 {
    private final String structType;
    private final List<Property> entries;
+   // Computed on first use, since the entries do not change
+   private int entriesLength = -1;
 
    public StructPropertyValue(String structType, List<Property> entries)
    {
@@ -47,8 +49,7 @@ class StructPropertyValue implements PropertyValue
    public void write(PropertyWriter writer) throws IOException
    {
       // total length (except this size integer)
-      int size = entries.stream().mapToInt(Property::computeLength).sum() + Property.NONE_NUM_BYTES;
-      writer.write(size);
+      writer.write(entriesLength());
       writer.writePadding();
       writer.write(structType);
       writer.writePadding();
@@ -63,10 +64,25 @@ class StructPropertyValue implements PropertyValue
    @Override
    public int length()
    {
-      int childrenSize = entries.stream().mapToInt(Property::computeLength).sum();
       // size + padding + struct name + padding + children + 'None' + padding
-      return Integer.BYTES + Integer.BYTES + Property.computeStringNumBytes(structType) + Integer.BYTES + childrenSize +
-             Property.NONE_NUM_BYTES;
+      return Integer.BYTES + Integer.BYTES + Property.computeStringNumBytes(structType) + Integer.BYTES +
+             entriesLength();
+   }
+
+   // Size of the children and the trailing 'None'
+   private int entriesLength()
+   {
+      int len = entriesLength;
+      if (len < 0)
+      {
+         len = Property.NONE_NUM_BYTES;
+         for (Property entry : entries)
+         {
+            len += entry.computeLength();
+         }
+         entriesLength = len;
+      }
+      return len;
    }
 
    @Override
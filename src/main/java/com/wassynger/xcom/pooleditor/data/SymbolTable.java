@@ -0,0 +1,291 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Global table of canonical strings for the names that repeat throughout pool
+ * files, such as property names, type names and name values. Strings are
+ * decoded straight from their serialized ASCII bytes, so a lookup of a known
+ * symbol does not allocate. Each symbol also caches the
+ * {@linkplain PropertyField fields} that use it as a name, so resolving a field
+ * does not allocate either. Lookups are lock-free, and are safe to do from
+ * multiple threads.
+ *
+ * @author Zach Wassynger
+ */
+final class SymbolTable
+{
+   // Once this many symbols exist, new strings are no longer interned
+   private static final int MAX_SYMBOLS = 1 << 16;
+   private static final int INITIAL_CAPACITY = 1024;
+   private static final int NUM_TYPES = PropertyType.values().length;
+
+   private static volatile Symbol[] table = new Symbol[INITIAL_CAPACITY];
+   private static int size = 0;
+
+   static
+   {
+      intern("None");
+      for (PropertyType type : PropertyType.values())
+      {
+         intern(type.getName());
+      }
+      for (CharacterField field : CharacterField.values())
+      {
+         intern(field.getName());
+      }
+      for (AppearanceField field : AppearanceField.values())
+      {
+         intern(field.getName());
+      }
+   }
+
+   /**
+    * Returns the canonical instance of the string stored in the given array.
+    *
+    * @param data   the ASCII data, non-null
+    * @param offset the start of the string
+    * @param len    the length of the string, excluding any null terminator
+    * @return the canonical string
+    */
+   static String intern(byte[] data, int offset, int len)
+   {
+      int hash = 0;
+      for (int i = 0; i < len; i++)
+      {
+         hash = 31 * hash + (data[offset + i] & 0xFF);
+      }
+      Symbol[] tab = table;
+      for (Symbol symbol = tab[hash & (tab.length - 1)]; symbol != null; symbol = symbol.next)
+      {
+         if (symbol.hash == hash && symbol.matches(data, offset, len))
+         {
+            return symbol.str;
+         }
+      }
+      return add(new String(data, offset, len, Property.STRING_CHARSET), hash);
+   }
+
+   /**
+    * Returns the canonical instance of the string stored in the given buffer.
+    * The position of the buffer is not modified.
+    *
+    * @param buffer the buffer containing ASCII data, non-null
+    * @param offset the absolute start of the string
+    * @param len    the length of the string, excluding any null terminator
+    * @return the canonical string
+    */
+   static String intern(ByteBuffer buffer, int offset, int len)
+   {
+      if (buffer.hasArray())
+      {
+         return intern(buffer.array(), buffer.arrayOffset() + offset, len);
+      }
+      int hash = 0;
+      for (int i = 0; i < len; i++)
+      {
+         hash = 31 * hash + (buffer.get(offset + i) & 0xFF);
+      }
+      Symbol[] tab = table;
+      for (Symbol symbol = tab[hash & (tab.length - 1)]; symbol != null; symbol = symbol.next)
+      {
+         if (symbol.hash == hash && symbol.matches(buffer, offset, len))
+         {
+            return symbol.str;
+         }
+      }
+      byte[] data = new byte[len];
+      for (int i = 0; i < len; i++)
+      {
+         data[i] = buffer.get(offset + i);
+      }
+      return add(new String(data, Property.STRING_CHARSET), hash);
+   }
+
+   /**
+    * Returns the canonical instance of the given string.
+    *
+    * @param str the given string, non-null
+    * @return the canonical string
+    */
+   static String intern(String str)
+   {
+      // String hash is the same as the byte hash for ASCII strings
+      int hash = str.hashCode();
+      Symbol symbol = find(str, hash);
+      return symbol != null ? symbol.str : add(str, hash);
+   }
+
+   /**
+    * Returns the field for the given name and type. Known fields are returned
+    * regardless of the type. Otherwise, a single unknown field is created and
+    * cached for each distinct name and type.
+    *
+    * @param name the given name, non-null
+    * @param type the given type, non-null
+    * @return the field
+    */
+   static PropertyField field(String name, PropertyType type)
+   {
+      Symbol symbol = find(name, name.hashCode());
+      if (symbol != null)
+      {
+         PropertyField[] fields = symbol.fields;
+         if (fields != null && fields[type.ordinal()] != null)
+         {
+            return fields[type.ordinal()];
+         }
+      }
+      return addField(name, type);
+   }
+
+   private static synchronized PropertyField addField(String name, PropertyType type)
+   {
+      String str = intern(name);
+      Symbol symbol = find(str, str.hashCode());
+      if (symbol == null)
+      {
+         // Symbol could not be added, so the field cannot be cached
+         return createField(str, type);
+      }
+      if (symbol.fields == null)
+      {
+         symbol.fields = new PropertyField[NUM_TYPES];
+      }
+      PropertyField field = symbol.fields[type.ordinal()];
+      if (field == null)
+      {
+         field = createField(str, type);
+         symbol.fields[type.ordinal()] = field;
+      }
+      return field;
+   }
+
+   private static PropertyField createField(String name, PropertyType type)
+   {
+      return CharacterField.get(name)
+            .map(PropertyField.class::cast)
+            .orElseGet(() -> AppearanceField.get(name)
+                  .map(PropertyField.class::cast)
+                  .orElseGet(() -> new UnknownPropertyField(name, type)));
+   }
+
+   private static Symbol find(String str, int hash)
+   {
+      Symbol[] tab = table;
+      for (Symbol symbol = tab[hash & (tab.length - 1)]; symbol != null; symbol = symbol.next)
+      {
+         if (symbol.hash == hash && symbol.str.equals(str))
+         {
+            return symbol;
+         }
+      }
+      return null;
+   }
+
+   private static synchronized String add(String str, int hash)
+   {
+      // Check again, as it may have been added while waiting for the lock
+      Symbol existing = find(str, hash);
+      if (existing != null)
+      {
+         return existing.str;
+      }
+      Symbol[] tab = table;
+      if (size >= MAX_SYMBOLS || !isAscii(str))
+      {
+         // Only hashes of ASCII strings match their byte hashes
+         return str;
+      }
+      if (size >= tab.length * 3 / 4)
+      {
+         tab = resize(tab);
+      }
+      int index = hash & (tab.length - 1);
+      tab[index] = new Symbol(str, hash, tab[index]);
+      size++;
+      // Publish the new symbol
+      table = tab;
+      return str;
+   }
+
+   private static Symbol[] resize(Symbol[] tab)
+   {
+      Symbol[] newTab = new Symbol[tab.length * 2];
+      for (Symbol head : tab)
+      {
+         for (Symbol symbol = head; symbol != null; symbol = symbol.next)
+         {
+            int index = symbol.hash & (newTab.length - 1);
+            newTab[index] = new Symbol(symbol.str, symbol.hash, newTab[index]);
+            newTab[index].fields = symbol.fields;
+         }
+      }
+      return newTab;
+   }
+
+   private static boolean isAscii(String str)
+   {
+      for (int i = 0; i < str.length(); i++)
+      {
+         if (str.charAt(i) > 0x7F)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private SymbolTable()
+   {
+      // Disallow instantiation
+   }
+
+   private static final class Symbol
+   {
+      private final String str;
+      private final int hash;
+      private final Symbol next;
+      // Fields with this name, indexed by type ordinal
+      private volatile PropertyField[] fields;
+
+      private Symbol(String str, int hash, Symbol next)
+      {
+         this.str = str;
+         this.hash = hash;
+         this.next = next;
+      }
+
+      private boolean matches(byte[] data, int offset, int len)
+      {
+         if (str.length() != len)
+         {
+            return false;
+         }
+         for (int i = 0; i < len; i++)
+         {
+            if (str.charAt(i) != (data[offset + i] & 0xFF))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private boolean matches(ByteBuffer buffer, int offset, int len)
+      {
+         if (str.length() != len)
+         {
+            return false;
+         }
+         for (int i = 0; i < len; i++)
+         {
+            if (str.charAt(i) != (buffer.get(offset + i) & 0xFF))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+}
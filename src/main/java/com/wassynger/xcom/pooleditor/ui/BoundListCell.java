@@ -0,0 +1,45 @@
+package com.wassynger.xcom.pooleditor.ui;
+
+import java.util.Objects;
+
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.ListCell;
+import javafx.util.Callback;
+
+/**
+ * List cell whose text is bound to an observable text of its item, so the cell
+ * is updated whenever the text of its item changes, without formatting the
+ * item again each time the cell is updated.
+ *
+ * @param <T> the type of the items
+ */
+public class BoundListCell<T> extends ListCell<T>
+{
+   private final Callback<? super T, ? extends ObservableValue<String>> textFactory;
+
+   /**
+    * Creates a new bound list cell.
+    *
+    * @param textFactory the callback that returns the text of an item, non-null
+    * @throws NullPointerException if textFactory is null
+    */
+   public BoundListCell(Callback<? super T, ? extends ObservableValue<String>> textFactory)
+   {
+      this.textFactory = Objects.requireNonNull(textFactory);
+   }
+
+   @Override
+   protected void updateItem(T item, boolean empty)
+   {
+      super.updateItem(item, empty);
+      textProperty().unbind();
+      if (item != null && !empty)
+      {
+         textProperty().bind(textFactory.call(item));
+      }
+      else
+      {
+         setText("");
+      }
+   }
+}
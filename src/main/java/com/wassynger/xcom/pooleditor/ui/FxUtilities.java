@@ -23,11 +23,16 @@ public class FxUtilities
    }
 
    public static void showError(String title, String message, Throwable throwable)
+   {
+      showError(title, message, throwable.toString());
+   }
+
+   public static void showError(String title, String message, String details)
    {
       Alert alert = new Alert(Alert.AlertType.ERROR);
       alert.setTitle(title);
       alert.setHeaderText(message);
-      alert.setContentText(throwable.toString());
+      alert.setContentText(details);
       alert.show();
    }
 
@@ -0,0 +1,95 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Timing loop shared by the benchmarks in this package. The benchmarks are
+ * plain main classes, which are run against the compiled classes:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes com.wassynger.xcom.pooleditor.data.FieldLookupBenchmark
+ * </pre>
+ * Each measurement runs some warm-up rounds before the measured rounds, and
+ * reports the fastest measured round, which is the one least disturbed by
+ * garbage collection and compilation.
+ *
+ * @author Zach Wassynger
+ */
+final class Benchmarks
+{
+   // Consumes the results of operations, so their work cannot be optimized away
+   private static long sink;
+
+   private Benchmarks()
+   {
+   }
+
+   /**
+    * Runs the given operation for the given number of rounds.
+    *
+    * @param warmups   the number of rounds that are not measured
+    * @param rounds    the number of measured rounds
+    * @param operation the operation, non-null
+    * @return the time of the fastest measured round in nanoseconds
+    * @throws Exception if the operation failed
+    */
+   static long measure(int warmups, int rounds, Operation operation) throws Exception
+   {
+      long best = Long.MAX_VALUE;
+      for (int i = 0; i < warmups + rounds; i++)
+      {
+         long start = System.nanoTime();
+         sink += operation.run();
+         long time = System.nanoTime() - start;
+         if (i >= warmups)
+         {
+            best = Math.min(best, time);
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Returns the number of bytes allocated by a single run of the given
+    * operation, once it is warmed up.
+    *
+    * @param operation the operation, non-null
+    * @return the number of bytes, or -1 if the JVM does not report them
+    * @throws Exception if the operation failed
+    */
+   static long allocated(Operation operation) throws Exception
+   {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean))
+      {
+         return -1;
+      }
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+      long id = Thread.currentThread().getId();
+      long before = threads.getThreadAllocatedBytes(id);
+      sink += operation.run();
+      return threads.getThreadAllocatedBytes(id) - before;
+   }
+
+   /**
+    * Prints a value that depends on every operation that was run, which also
+    * keeps the results from being optimized away.
+    */
+   static void printChecksum()
+   {
+      System.out.printf("(checksum %d)%n", sink);
+   }
+
+   @FunctionalInterface
+   interface Operation
+   {
+      /**
+       * Runs the measured work once.
+       *
+       * @return a value that depends on the work
+       * @throws Exception if the work failed
+       */
+      long run() throws Exception;
+   }
+}
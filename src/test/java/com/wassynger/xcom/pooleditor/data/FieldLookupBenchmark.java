@@ -0,0 +1,81 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link PropertyField#get} on the names of every known character and
+ * appearance field, plus one field that is not known. The names are interned
+ * first, like the names decoded from a pool file. For comparison, the previous
+ * lookup is measured as well, which went through two chains of Optional
+ * lookups and created a new unknown field on every call.
+ *
+ * @author Zach Wassynger
+ */
+final class FieldLookupBenchmark
+{
+   private static final int LOOKUPS = 1_000_000;
+
+   public static void main(String[] args) throws Exception
+   {
+      List<String> names = new ArrayList<>();
+      List<PropertyType> types = new ArrayList<>();
+      for (CharacterField field : CharacterField.values())
+      {
+         names.add(SymbolTable.intern(field.getName()));
+         types.add(field.getType());
+      }
+      for (AppearanceField field : AppearanceField.values())
+      {
+         names.add(SymbolTable.intern(field.getName()));
+         types.add(field.getType());
+      }
+      names.add(SymbolTable.intern("iUnknownBenchmarkField"));
+      types.add(PropertyType.INT);
+      String[] nameArray = names.toArray(new String[0]);
+      PropertyType[] typeArray = types.toArray(new PropertyType[0]);
+
+      Benchmarks.Operation current = () ->
+      {
+         long sum = 0;
+         for (int i = 0; i < LOOKUPS; i++)
+         {
+            int j = i % nameArray.length;
+            sum += PropertyField.get(nameArray[j], typeArray[j]).getType().ordinal();
+         }
+         return sum;
+      };
+      Benchmarks.Operation previous = () ->
+      {
+         long sum = 0;
+         for (int i = 0; i < LOOKUPS; i++)
+         {
+            int j = i % nameArray.length;
+            sum += getPrevious(nameArray[j], typeArray[j]).getType().ordinal();
+         }
+         return sum;
+      };
+      System.out.printf("%d names, %d lookups per round%n", nameArray.length, LOOKUPS);
+      report("previous lookup", previous);
+      report("PropertyField.get", current);
+      Benchmarks.printChecksum();
+   }
+
+   private static void report(String label, Benchmarks.Operation operation) throws Exception
+   {
+      long nanos = Benchmarks.measure(20, 10, operation);
+      long bytes = Benchmarks.allocated(operation);
+      System.out.printf("%-18s %6.1f ns/lookup, %6.1f bytes/lookup allocated%n", label, (double) nanos / LOOKUPS,
+            (double) bytes / LOOKUPS);
+   }
+
+   // The lookup before fields were resolved through the symbol table
+   private static PropertyField getPrevious(String name, PropertyType type)
+   {
+      return CharacterField.get(name)
+            .map(PropertyField.class::cast)
+            .orElse(AppearanceField.get(name)
+                  .map(PropertyField.class::cast)
+                  .orElse(new UnknownPropertyField(name, type)));
+   }
+}
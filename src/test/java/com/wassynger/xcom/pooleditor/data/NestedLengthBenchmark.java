@@ -0,0 +1,73 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Measures sizing and then writing a synthetic property that nests structs and
+ * arrays in each other, at several depths. Each round uses a new property, so
+ * no length is memoized beforehand, like a property that was just decoded.
+ * When the time per byte stays the same as the depth grows, each value is only
+ * measured once rather than once per ancestor.
+ *
+ * @author Zach Wassynger
+ */
+final class NestedLengthBenchmark
+{
+   private static final int[] DEPTHS = { 200, 400, 800, 1600 };
+   private static final int WARMUPS = 20;
+   private static final int ROUNDS = 10;
+
+   private static final PropertyField VALUE_FIELD = PropertyField.get("iBenchmarkValue", PropertyType.INT);
+   private static final PropertyField STRUCT_FIELD = PropertyField.get("BenchmarkStruct", PropertyType.STRUCT);
+   private static final PropertyField ARRAY_FIELD = PropertyField.get("BenchmarkArray", PropertyType.ARRAY);
+
+   public static void main(String[] args) throws Exception
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(nested(DEPTHS[DEPTHS.length - 1]).computeLength());
+      for (int depth : DEPTHS)
+      {
+         Property[] properties = new Property[WARMUPS + ROUNDS];
+         for (int i = 0; i < properties.length; i++)
+         {
+            properties[i] = nested(depth);
+         }
+         int[] next = { 0 };
+         long nanos = Benchmarks.measure(WARMUPS, ROUNDS, () ->
+         {
+            Property property = properties[next[0]++];
+            int length = property.computeLength();
+            buffer.clear();
+            PropertyEncoder encoder = new PropertyEncoder(buffer);
+            encoder.write(property);
+            if (encoder.position() != length)
+            {
+               throw new IllegalStateException(
+                     String.format("computed length %d but wrote %d bytes", length, encoder.position()));
+            }
+            return length;
+         });
+         int length = properties[0].computeLength();
+         System.out.printf("depth %4d: %8d bytes, %7.3f ms, %5.2f ns/byte%n", depth, length, nanos / 1e6,
+               (double) nanos / length);
+      }
+      Benchmarks.printChecksum();
+   }
+
+   // Nests the given number of structs, where every other struct is the
+   // entry of an array
+   private static Property nested(int depth)
+   {
+      Property property = new Property(VALUE_FIELD, IntPropertyValue.of(0));
+      for (int i = 0; i < depth; i++)
+      {
+         Property struct = new Property(STRUCT_FIELD, new StructPropertyValue("BenchmarkStruct",
+               Arrays.asList(new Property(VALUE_FIELD, IntPropertyValue.of(i)), property)));
+         property = i % 2 == 0 ? struct : new Property(ARRAY_FIELD,
+               new ArrayPropertyValue(Collections.emptyList(),
+                     Collections.singletonList(new ArrayPropertyValue.Entry(Collections.singletonList(struct)))));
+      }
+      return property;
+   }
+}
@@ -0,0 +1,144 @@
+package com.wassynger.xcom.pooleditor.data;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures encoding a large pool whose characters all share one layout, which
+ * is the case the {@link EntryTemplate} is compiled for. Encoding alone is
+ * measured through the entry of each character and through a
+ * {@link CharacterEncoder}, and writing the whole file is measured in the
+ * {@link CharacterPoolWriter.Mode#STREAM STREAM} mode, which encodes through
+ * the entries, and the {@link CharacterPoolWriter.Mode#BUFFERED BUFFERED}
+ * mode, which encodes through the template. The pool takes about 350 MB
+ * encoded, so the benchmark needs a heap of a few gigabytes, e.g. -Xmx3g.
+ *
+ * @author Zach Wassynger
+ */
+final class TemplateEncodingBenchmark
+{
+   private static final int NUM_CHARACTERS = 100_000;
+   private static final int WARMUPS = 5;
+   private static final int ROUNDS = 5;
+
+   public static void main(String[] args) throws Exception
+   {
+      Random random = new Random(7);
+      List<Character> characters = new ArrayList<>(NUM_CHARACTERS);
+      for (int i = 0; i < NUM_CHARACTERS; i++)
+      {
+         characters.add(uniform(random));
+      }
+      CharacterPool pool = new CharacterPool(null, "Benchmark", "Benchmark.bin", characters);
+
+      int size = 0;
+      for (Character character : characters)
+      {
+         size += character.toEntry().computeLength();
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+      System.out.printf("%d characters, %d bytes%n", NUM_CHARACTERS, size);
+      report("encode entries", () ->
+      {
+         buffer.clear();
+         PropertyEncoder encoder = new PropertyEncoder(buffer);
+         for (Character character : characters)
+         {
+            ArrayPropertyValue.Entry entry = character.toEntry();
+            entry.computeLength();
+            entry.write(encoder);
+         }
+         return encoder.position();
+      });
+      report("encode template", () ->
+      {
+         buffer.clear();
+         PropertyEncoder encoder = new PropertyEncoder(buffer);
+         CharacterEncoder characterEncoder = new CharacterEncoder();
+         for (Character character : characters)
+         {
+            characterEncoder.prepare(character);
+            characterEncoder.encode(encoder);
+         }
+         return encoder.position();
+      });
+
+      Path dir = Files.createTempDirectory("benchmark");
+      Path streamFile = dir.resolve("stream.bin");
+      Path bufferedFile = dir.resolve("buffered.bin");
+      try
+      {
+         report("write STREAM", () -> write(pool, streamFile, CharacterPoolWriter.Mode.STREAM));
+         report("write BUFFERED", () -> write(pool, bufferedFile, CharacterPoolWriter.Mode.BUFFERED));
+         if (!Arrays.equals(Files.readAllBytes(streamFile), Files.readAllBytes(bufferedFile)))
+         {
+            throw new IllegalStateException("STREAM and BUFFERED files differ");
+         }
+      }
+      finally
+      {
+         Files.deleteIfExists(streamFile);
+         Files.deleteIfExists(bufferedFile);
+         Files.delete(dir);
+      }
+      Benchmarks.printChecksum();
+   }
+
+   private static void report(String label, Benchmarks.Operation operation) throws Exception
+   {
+      long nanos = Benchmarks.measure(WARMUPS, ROUNDS, operation);
+      System.out.printf("%-16s %8.1f ms, %6.2f us/character%n", label, nanos / 1e6,
+            nanos / 1e3 / NUM_CHARACTERS);
+   }
+
+   private static long write(CharacterPool pool, Path file, CharacterPoolWriter.Mode mode) throws Exception
+   {
+      try (CharacterPoolWriter writer = CharacterPoolWriter.open(file, mode))
+      {
+         writer.write(pool);
+      }
+      return Files.size(file);
+   }
+
+   // Creates a character with every known field in the same order, with
+   // random values of the same types
+   private static Character uniform(Random random)
+   {
+      List<Property> appearance = new ArrayList<>();
+      for (AppearanceField field : AppearanceField.values())
+      {
+         appearance.add(new Property(field, value(field.getType(), random)));
+      }
+      List<Property> properties = new ArrayList<>();
+      for (CharacterField field : CharacterField.values())
+      {
+         PropertyValue value = field == CharacterField.APPEARANCE
+               ? new StructPropertyValue("TAppearance", appearance)
+               : value(field.getType(), random);
+         properties.add(new Property(field, value));
+      }
+      return Character.fromProperties(properties);
+   }
+
+   private static PropertyValue value(PropertyType type, Random random)
+   {
+      switch (type)
+      {
+      case BOOL:
+         return BoolPropertyValue.of(random.nextBoolean());
+      case INT:
+         return IntPropertyValue.of(random.nextInt(20));
+      case STRING:
+         return new StringPropertyValue(random.nextInt(5) == 0 ? "" : "Value " + random.nextInt(1000));
+      case NAME:
+         return NamePropertyValue.of(random.nextInt(3) == 0 ? "None" : "Name_" + random.nextInt(10), 0);
+      default:
+         throw new AssertionError(String.format("unhandled type: %s", type));
+      }
+   }
+}